@@ -19,3 +19,30 @@ tasks.processResources {
     }
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
+// Benchmarks, run with ./gradlew jmh; pass JMH options with -PjmhArgs="..."
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.test.get().output + sourceSets.test.get().compileClasspath
+    runtimeClasspath += output + compileClasspath + sourceSets.test.get().runtimeClasspath
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.named<JavaCompile>(jmh.compileJavaTaskName) {
+    javaCompiler.set(tasks.compileTestJava.flatMap { it.javaCompiler })
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    javaLauncher.set(tasks.test.flatMap { it.javaLauncher })
+    args((findProperty("jmhArgs") as String?)?.split(' ')?.filter { it.isNotEmpty() } ?: emptyList())
+}
@@ -0,0 +1,80 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus.ClassFile;
+import cpw.mods.fml.common.LoaderException;
+import cpw.mods.fml.common.discovery.asm.ASMModParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to scan the annotations of every class in the FML jar: FML's ASMModParser, {@link AnnotationExtractor} alone, and {@link AnnotatedClass}
+ * as discovery uses it, also decoding the values the way a mod looking them all up would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationScanBenchmark {
+
+    private List<ClassFile> corpus;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = new ArrayList<>();
+        // only the classes all three can read, so they do the same work
+        for (ClassFile classFile : ClassCorpus.containing(ASMModParser.class)) {
+            try {
+                new ASMModParser(new ByteArrayInputStream(classFile.bytes()));
+                corpus.add(classFile);
+            } catch (LoaderException ignored) {}
+        }
+    }
+
+    @Benchmark
+    public void asmModParser(Blackhole blackhole) throws IOException {
+        for (ClassFile classFile : corpus) {
+            blackhole.consume(new ASMModParser(new ByteArrayInputStream(classFile.bytes())).getAnnotations());
+        }
+    }
+
+    @Benchmark
+    public void annotationExtractor(Blackhole blackhole) {
+        for (ClassFile classFile : corpus) {
+            blackhole.consume(AnnotationExtractor.read(classFile.bytes(), classFile.bytes().length, classFile.entryName()));
+        }
+    }
+
+    @Benchmark
+    public void annotatedClass(Blackhole blackhole) throws IOException {
+        for (ClassFile classFile : corpus) {
+            blackhole.consume(AnnotatedClass.read(classFile.bytes(), classFile.bytes().length, classFile.entryName()));
+        }
+    }
+
+    @Benchmark
+    public void annotatedClassWithValues(Blackhole blackhole) throws IOException {
+        for (ClassFile classFile : corpus) {
+            final AnnotatedClass annotatedClass = AnnotatedClass.read(classFile.bytes(), classFile.bytes().length, classFile.entryName());
+            for (AnnotatedClass.Annotation annotation : annotatedClass.getAnnotations()) {
+                blackhole.consume(annotation.values().size());
+            }
+        }
+    }
+}
@@ -13,7 +13,10 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 /*
  * Note: Don't use Forge's config as this needs to load early without all of Forge's classes loaded
@@ -23,6 +26,13 @@ public class Config {
     private static final Logger LOGGER = LogManager.getLogger("JarJar");
 
     public static final int maxThreads;
+    public static final boolean discoveryCache;
+    public static final String nestedJarStore;
+    public static final boolean lazyNestedJars;
+    public static final int nestedJarExtractionBudget;
+    public static final boolean targetedAnnotationScan;
+    public static final List<String> scannedAnnotations;
+    public static final boolean indexedClassPath;
 
     static {
         Properties config = new Properties();
@@ -36,6 +46,16 @@ public class Config {
         }
         final int threads = Integer.parseInt(config.getProperty("maxThreads", "-1"));
         maxThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        discoveryCache = Boolean.parseBoolean(config.getProperty("discoveryCache", "true"));
+        nestedJarStore = config.getProperty("nestedJarStore", "").trim();
+        lazyNestedJars = Boolean.parseBoolean(config.getProperty("lazyNestedJars", "false"));
+        // MiB of nested jars being extracted at once, 0 for no limit. With lazyNestedJars, half of it is for nested jars held in memory
+        nestedJarExtractionBudget = Integer.parseInt(config.getProperty("nestedJarExtractionBudget", "256"));
+        // Only fully parse classes referencing FML's annotations plus these, comma separated class names
+        targetedAnnotationScan = Boolean.parseBoolean(config.getProperty("targetedAnnotationScan", "false"));
+        scannedAnnotations = Arrays.stream(config.getProperty("scannedAnnotations", "").split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+        // Answer Guava ClassPath scans of mod jars from discovery's class list; their non-class resources won't be listed
+        indexedClassPath = Boolean.parseBoolean(config.getProperty("indexedClassPath", "false"));
 
         try (Writer r = new BufferedWriter(new FileWriter(configLocation))) {
             config.store(r, "Configuration file for early hodgepodge class transformers");
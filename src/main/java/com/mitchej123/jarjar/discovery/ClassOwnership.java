@@ -0,0 +1,242 @@
+package com.mitchej123.jarjar.discovery;
+
+import com.mitchej123.jarjar.fml.common.LoaderUtil;
+import cpw.mods.fml.common.discovery.ModCandidate;
+import net.minecraft.launchwrapper.Launch;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Which jar holds which class and package, as found by mod discovery, so mods don't have to reopen jars to find out.
+ * <p>
+ * Built once discovery is done from the classes of every jar that made it onto the classpath and published on {@link Launch#blackboard} under
+ * {@link #BLACKBOARD_KEY} encoded using JDK types only, since mods may see a different copy of the JarJar classes than the loader that built it.
+ * Classes and packages are sorted arrays looked up by binary search, owners are int ids into the source files. Each source also keeps its own
+ * sorted class list, which still holds classes an earlier source owns, such as shaded copies.
+ * <p>
+ * The classes are the ones discovery scans: entries under {@code META-INF/versions/} and {@code __MACOSX}, {@code module-info} and Scala's
+ * {@code Foo$.class} module classes are left out, like any resource that isn't a class.
+ */
+public final class ClassOwnership {
+
+    public static final String BLACKBOARD_KEY = "jarjar.classOwnership";
+
+    // source files, class names, class owners, package names, package owner starts, package owners, class names of every source grouped
+    // by source, source class starts
+    private static final int SOURCES = 0, CLASSES = 1, CLASS_OWNERS = 2, PACKAGES = 3, PACKAGE_STARTS = 4, PACKAGE_OWNERS = 5, SOURCE_CLASSES = 6,
+        SOURCE_STARTS = 7;
+
+    private final File[] sources;
+    private final String[] classes;
+    private final int[] classOwners;
+    private final String[] packages;
+    private final int[] packageStarts;
+    private final int[] packageOwners;
+    private final String[] sourceClasses;
+    private final int[] sourceStarts;
+
+    private static volatile @Nullable ClassOwnership cached;
+    private final Object[] encoded;
+    // built on the first getClassesIn: source ids by normalized path
+    private Map<String, Integer> sourceIds;
+
+    private ClassOwnership(Object[] encoded) {
+        this.encoded = encoded;
+        this.sources = (File[]) encoded[SOURCES];
+        this.classes = (String[]) encoded[CLASSES];
+        this.classOwners = (int[]) encoded[CLASS_OWNERS];
+        this.packages = (String[]) encoded[PACKAGES];
+        this.packageStarts = (int[]) encoded[PACKAGE_STARTS];
+        this.packageOwners = (int[]) encoded[PACKAGE_OWNERS];
+        this.sourceClasses = (String[]) encoded[SOURCE_CLASSES];
+        this.sourceStarts = (int[]) encoded[SOURCE_STARTS];
+    }
+
+    /**
+     * @return the index built by this launch's mod discovery, or null if discovery hasn't run yet
+     */
+    public static @Nullable ClassOwnership get() {
+        if (!(Launch.blackboard.get(BLACKBOARD_KEY) instanceof Object[] array)) return null;
+        ClassOwnership ownership = cached;
+        if (ownership == null || ownership.encoded != array) {
+            ownership = new ClassOwnership(array);
+            cached = ownership;
+        }
+        return ownership;
+    }
+
+    /**
+     * Builds the index from the classes the candidates recorded while being sent to the ASMDataTable and publishes it. Earlier candidates win
+     * the lookups by class when several hold the same class, the per-source lists keep every copy.
+     */
+    public static void publish(Collection<? extends ModCandidate> candidates) {
+        final Map<File, Integer> sourceIds = new LinkedHashMap<>();
+        final Map<ModCandidate, Integer> ownerIds = new IdentityHashMap<>();
+        int classCount = 0;
+        for (ModCandidate candidate : candidates) {
+            // candidates that weren't scanned have no classes recorded, leave them out rather than claim they're empty
+            if (ownerIds.containsKey(candidate) || candidate.getClassList().isEmpty()) continue;
+            final Integer id = sourceIds.computeIfAbsent(candidate.getModContainer(), k -> sourceIds.size());
+            ownerIds.put(candidate, id);
+            classCount += candidate.getClassList().size();
+        }
+
+        final String[] names = new String[classCount];
+        final int[] owners = new int[classCount];
+        final Map<String, TreeSet<Integer>> ownersByPackage = new TreeMap<>();
+        int count = 0;
+        for (Map.Entry<ModCandidate, Integer> entry : ownerIds.entrySet()) {
+            for (String className : entry.getKey().getClassList()) {
+                final String name = className.replace('/', '.');
+                names[count] = name;
+                owners[count++] = entry.getValue();
+                final int pkgIdx = name.lastIndexOf('.');
+                ownersByPackage.computeIfAbsent(pkgIdx > -1 ? name.substring(0, pkgIdx) : "", k -> new TreeSet<>()).add(entry.getValue());
+            }
+        }
+
+        // sort by name, then owner so the earliest candidate comes first among duplicates
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            final int byName = names[a].compareTo(names[b]);
+            return byName != 0 ? byName : Integer.compare(owners[a], owners[b]);
+        });
+        final String[] sortedNames = new String[count];
+        final int[] sortedOwners = new int[count];
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            final int from = order[i];
+            if (unique > 0 && sortedNames[unique - 1].equals(names[from])) continue;
+            sortedNames[unique] = names[from];
+            sortedOwners[unique++] = owners[from];
+        }
+
+        final String[] packageNames = ownersByPackage.keySet().toArray(new String[0]);
+        final int[] packageStarts = new int[packageNames.length + 1];
+        final int[] packageOwners = new int[ownersByPackage.values().stream().mapToInt(TreeSet::size).sum()];
+        int pkg = 0, next = 0;
+        for (TreeSet<Integer> pkgOwners : ownersByPackage.values()) {
+            packageStarts[pkg++] = next;
+            for (int owner : pkgOwners) {
+                packageOwners[next++] = owner;
+            }
+        }
+        packageStarts[pkg] = next;
+
+        // group by source, then sort and drop duplicates within each source only
+        final int sourceCount = sourceIds.size();
+        final int[] sourceStarts = new int[sourceCount + 1];
+        for (int i = 0; i < count; i++) {
+            sourceStarts[owners[i] + 1]++;
+        }
+        for (int id = 1; id <= sourceCount; id++) {
+            sourceStarts[id] += sourceStarts[id - 1];
+        }
+        final String[] sourceClasses = new String[count];
+        final int[] nextSlot = Arrays.copyOf(sourceStarts, sourceCount);
+        for (int i = 0; i < count; i++) {
+            sourceClasses[nextSlot[owners[i]]++] = names[i];
+        }
+        int kept = 0;
+        for (int id = 0; id < sourceCount; id++) {
+            final int from = sourceStarts[id], to = sourceStarts[id + 1];
+            Arrays.sort(sourceClasses, from, to);
+            sourceStarts[id] = kept;
+            for (int i = from; i < to; i++) {
+                if (kept == sourceStarts[id] || !sourceClasses[i].equals(sourceClasses[kept - 1])) sourceClasses[kept++] = sourceClasses[i];
+            }
+        }
+        sourceStarts[sourceCount] = kept;
+
+        Launch.blackboard.put(
+            BLACKBOARD_KEY,
+            new Object[] { sourceIds.keySet().toArray(new File[0]), Arrays.copyOf(sortedNames, unique), Arrays.copyOf(sortedOwners, unique),
+                packageNames, packageStarts, packageOwners, Arrays.copyOf(sourceClasses, kept), sourceStarts });
+    }
+
+    /**
+     * @param className binary name of a class, with dots or slashes
+     * @return the jar or directory holding the class, or null if discovery didn't see it
+     */
+    public @Nullable File getSource(String className) {
+        final int index = Arrays.binarySearch(classes, className.replace('/', '.'));
+        return index >= 0 ? sources[classOwners[index]] : null;
+    }
+
+    /**
+     * @param pkg package name, with dots or slashes
+     * @return the jars or directories holding classes in the package, in discovery order
+     */
+    public List<File> getSources(String pkg) {
+        final int index = Arrays.binarySearch(packages, pkg.replace('/', '.'));
+        if (index < 0) return Collections.emptyList();
+        final List<File> result = new ArrayList<>(packageStarts[index + 1] - packageStarts[index]);
+        for (int i = packageStarts[index]; i < packageStarts[index + 1]; i++) {
+            result.add(sources[packageOwners[i]]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @param pkg package name, with dots or slashes
+     * @return the binary names, with dots, of the classes directly in the package, sorted
+     */
+    public List<String> getClasses(String pkg) {
+        final String prefix = pkg.isEmpty() ? "" : pkg.replace('/', '.') + '.';
+        int index = Arrays.binarySearch(classes, prefix);
+        if (index < 0) index = -index - 1;
+        final List<String> result = new ArrayList<>();
+        for (; index < classes.length && classes[index].startsWith(prefix); index++) {
+            // subpackages sort in between
+            if (classes[index].indexOf('.', prefix.length()) < 0) result.add(classes[index]);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return every jar or directory discovery saw classes in, in discovery order
+     */
+    public List<File> getSources() {
+        return Collections.unmodifiableList(Arrays.asList(sources));
+    }
+
+    /**
+     * @param source a jar or directory, as a path in any form
+     * @return the binary names, with dots, of every class in source, sorted, or null if discovery didn't see classes in it. Classes another
+     * source holds too are included, even where that source wins {@link #getSource}.
+     */
+    public synchronized @Nullable List<String> getClassesIn(File source) {
+        if (sourceIds == null) {
+            sourceIds = new HashMap<>(sources.length * 2);
+            for (int id = 0; id < sources.length; id++) {
+                sourceIds.putIfAbsent(keyOf(sources[id]), id);
+            }
+        }
+        final Integer id = sourceIds.get(keyOf(source));
+        if (id == null) return null;
+        return Collections.unmodifiableList(Arrays.asList(sourceClasses).subList(sourceStarts[id], sourceStarts[id + 1]));
+    }
+
+    public int getClassCount() {
+        return classes.length;
+    }
+
+    private static String keyOf(File file) {
+        return LoaderUtil.normalizePath(file.toPath()).toString();
+    }
+}
@@ -0,0 +1,362 @@
+package com.mitchej123.jarjar.discovery;
+
+import com.github.bsideup.jabel.Desugar;
+import com.mitchej123.jarjar.Config;
+import com.mitchej123.jarjar.Tags;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotationPrescan;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.MappedZipFile;
+import com.mitchej123.jarjar.util.NestedJarStore;
+import net.minecraft.launchwrapper.Launch;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Manifest;
+
+/**
+ * Persistent per-jar cache of the mod discovery scan.
+ * <p>
+ * Each scanned jar gets one cache file keyed by (normalized path, size, mtime, format version, scanned annotation set) holding the manifest,
+ * mcmod.info, the nested jar list, the header of every class without annotations, the bytes of every class with annotations and the @API flag. On a
+ * hit the candidate is rebuilt from the cache without opening the jar; only the (few) annotated classes are parsed again. A nested jar that is
+ * neither extracted nor pending, such as one that was only held in memory last launch, is read again from its entry in the outer jar and
+ * deferred or extracted, instead of rescanning the whole outer jar.
+ */
+public final class DiscoveryCache {
+
+    private static final Logger LOGGER = LogManager.getLogger("DiscoveryCache");
+    private static final int MAGIC = 0x4A4A4443; // JJDC
+    private static final int FORMAT_VERSION = 4;
+    private static final String CACHE_DIR = "jarjar/discovery";
+    private static final String CACHE_SUFFIX = ".cache";
+
+    private static final byte END = 0;
+    private static final byte CLASS_HEADER = 1;
+    private static final byte CLASS_BYTES = 2;
+
+    /**
+     * mtime recorded for nested jars that are only held in memory, their target file name already contains the content hash
+     */
+    public static final long IN_MEMORY = -1L;
+
+    private final @Nullable File cacheDir;
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+
+    @Desugar public record CachedJar(JarUtil.JarMetadata metadata, List<ClassHeader> headers, List<AnnotatedClass> classes, boolean containsAPI) {
+    }
+
+    public DiscoveryCache() {
+        this.cacheDir = Config.discoveryCache ? setupCacheDir() : null;
+    }
+
+    private static @Nullable File setupCacheDir() {
+        final File dir = new File(Launch.minecraftHome, CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warn("Unable to create discovery cache directory {}, caching disabled", dir);
+            return null;
+        }
+        return dir;
+    }
+
+    public boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * @return the cached scan of the jar at path, or null if there is no valid entry for its current size and mtime
+     */
+    public @Nullable CachedJar load(Path path) {
+        if (cacheDir == null) return null;
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        return load(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    public @Nullable CachedJar load(Path path, long size, long mtime) {
+        if (cacheDir == null) return null;
+        final String key = keyOf(path);
+        usedKeys.add(key);
+        final File cacheFile = new File(cacheDir, key + CACHE_SUFFIX);
+        if (!cacheFile.isFile()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (!readHeader(in, path, size, mtime)) return null;
+
+            final Manifest manifest = in.readBoolean() ? new Manifest(new ByteArrayInputStream(readBytes(in))) : null;
+            final byte[] modInfo = in.readBoolean() ? readBytes(in) : null;
+            final int nestedCount = in.readInt();
+            final List<JarUtil.NestedJar> nestedJars = nestedCount == 0 ? Collections.emptyList() : new ArrayList<>(nestedCount);
+            for (int i = 0; i < nestedCount; i++) {
+                final JarUtil.NestedJar nestedJar = new JarUtil.NestedJar(new File(in.readUTF()), in.readUTF(), in.readUTF(), in.readUTF());
+                if (!nestedJar.file().isFile() && !NestedJarStore.isPending(nestedJar.file()) && !restoreNestedJar(path, nestedJar)) return null;
+                nestedJars.add(nestedJar);
+            }
+
+            final List<ClassHeader> headers = new ArrayList<>();
+            final List<AnnotatedClass> classes = new ArrayList<>();
+            byte tag;
+            while ((tag = in.readByte()) != END) {
+                final String classEntry = in.readUTF();
+                if (tag == CLASS_HEADER) {
+                    final String name = in.readUTF();
+                    final int classVersion = in.readInt();
+                    final String superName = in.readBoolean() ? in.readUTF() : null;
+                    final String[] interfaces = new String[in.readUnsignedShort()];
+                    for (int i = 0; i < interfaces.length; i++) {
+                        interfaces[i] = in.readUTF();
+                    }
+                    headers.add(new ClassHeader(classEntry, name, classVersion, superName, interfaces));
+                } else if (tag == CLASS_BYTES) {
+                    final byte[] classBytes = readBytes(in);
+                    classes.add(AnnotatedClass.read(classBytes, classBytes.length, classEntry));
+                } else {
+                    throw new IOException("Unknown record type " + tag);
+                }
+            }
+            final boolean containsAPI = in.readBoolean();
+            return new CachedJar(new JarUtil.JarMetadata(manifest, modInfo, nestedJars, null), headers, classes, containsAPI);
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable discovery cache entry {} for {}", cacheFile.getName(), path, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a writer for the cache entry of the jar at path; it is only published once {@link Writer#commit(boolean)} is called
+     */
+    public Writer writer(Path path) {
+        if (cacheDir == null) return Writer.NOOP;
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return writer(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            LOGGER.warn("Unable to create discovery cache entry for {}", path, e);
+            return Writer.NOOP;
+        }
+    }
+
+    public Writer writer(Path path, long size, long mtime) {
+        if (cacheDir == null) return Writer.NOOP;
+        final String key = keyOf(path);
+        usedKeys.add(key);
+        try {
+            final Path tmp = Files.createTempFile(cacheDir.toPath(), key, ".tmp");
+            final Writer writer = new Writer(tmp, new File(cacheDir, key + CACHE_SUFFIX).toPath());
+            writeHeader(writer.out, path, size, mtime);
+            return writer;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to create discovery cache entry for {}", path, e);
+            return Writer.NOOP;
+        }
+    }
+
+    /**
+     * Removes cache entries for jars that were not looked at during this discovery run.
+     */
+    public void pruneUnused() {
+        if (cacheDir == null) return;
+        final File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            final String name = file.getName();
+            final boolean stale = name.endsWith(CACHE_SUFFIX) ? !usedKeys.contains(name.substring(0, name.length() - CACHE_SUFFIX.length())) : name.endsWith(".tmp");
+            if (stale && !file.delete()) {
+                LOGGER.debug("Unable to delete stale discovery cache file {}", file);
+            }
+        }
+        usedKeys.clear();
+    }
+
+    /**
+     * Reads a nested jar whose extracted copy is gone back out of the jar holding it, deferring or extracting it as discovery would.
+     *
+     * @return false if it can't be, the outer jar has to be rescanned then
+     */
+    private static boolean restoreNestedJar(Path outer, JarUtil.NestedJar nestedJar) {
+        final ByteBuffer pendingContent = NestedJarStore.getPending(outer.toFile());
+        try (MappedZipFile zip = pendingContent != null
+            ? new MappedZipFile(outer.toString(), pendingContent)
+            : MappedZipFile.open(outer.toFile(), Collections.singletonList(nestedJar.entryName()))) {
+            final JarUtil.NestedJar restored = JarUtil.getNestedJar(zip, nestedJar.entryName(), nestedJar.file().getParentFile());
+            return restored != null && restored.file().equals(nestedJar.file());
+        } catch (IOException e) {
+            LOGGER.debug("Unable to restore nested jar {} from {}: {}", nestedJar.entryName(), outer, e.toString());
+            return false;
+        }
+    }
+
+    private static String keyOf(Path path) {
+        return DigestUtils.sha1Hex(path.toAbsolutePath().toString());
+    }
+
+    private static void writeHeader(DataOutputStream out, Path path, long size, long mtime) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(Tags.VERSION);
+        out.writeUTF(AnnotationPrescan.fingerprint());
+        out.writeUTF(path.toAbsolutePath().toString());
+        out.writeLong(size);
+        out.writeLong(mtime);
+    }
+
+    private static boolean readHeader(DataInputStream in, Path path, long size, long mtime) throws IOException {
+        return in.readInt() == MAGIC
+            && in.readInt() == FORMAT_VERSION
+            && in.readUTF().equals(Tags.VERSION)
+            && in.readUTF().equals(AnnotationPrescan.fingerprint())
+            && in.readUTF().equals(path.toAbsolutePath().toString())
+            && in.readLong() == size
+            && in.readLong() == mtime;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Streams a cache entry to a temporary file, published atomically on commit. Closing an uncommitted writer discards the entry; write failures
+     * only disable caching for that jar.
+     */
+    public static class Writer implements Closeable {
+        static final Writer NOOP = new Writer();
+
+        private final @Nullable Path tmp;
+        private final @Nullable Path target;
+        private @Nullable DataOutputStream out;
+
+        private Writer() {
+            this.tmp = null;
+            this.target = null;
+            this.out = null;
+        }
+
+        private Writer(Path tmp, Path target) throws IOException {
+            this.tmp = tmp;
+            this.target = target;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+        }
+
+        public void writeMetadata(JarUtil.JarMetadata metadata) {
+            if (out == null) return;
+            try {
+                out.writeBoolean(metadata.manifest() != null);
+                if (metadata.manifest() != null) {
+                    final ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+                    metadata.manifest().write(manifestBytes);
+                    writeBytes(out, manifestBytes.toByteArray());
+                }
+                out.writeBoolean(metadata.modInfo() != null);
+                if (metadata.modInfo() != null) {
+                    writeBytes(out, metadata.modInfo());
+                }
+                out.writeInt(metadata.nestedJars().size());
+                for (JarUtil.NestedJar nestedJar : metadata.nestedJars()) {
+                    out.writeUTF(nestedJar.file().getAbsolutePath());
+                    out.writeUTF(nestedJar.sourceFilename());
+                    out.writeUTF(nestedJar.hash());
+                    out.writeUTF(nestedJar.entryName());
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        public void writeClassHeader(ClassHeader header) {
+            if (out == null) return;
+            try {
+                out.writeByte(CLASS_HEADER);
+                out.writeUTF(header.getClassEntry());
+                out.writeUTF(header.getName());
+                out.writeInt(header.getClassVersion());
+                out.writeBoolean(header.getSuperName() != null);
+                if (header.getSuperName() != null) {
+                    out.writeUTF(header.getSuperName());
+                }
+                out.writeShort(header.getInterfaces().length);
+                for (String intf : header.getInterfaces()) {
+                    out.writeUTF(intf);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        public void writeClassBytes(String classEntry, byte[] classBytes, int length) {
+            if (out == null) return;
+            try {
+                out.writeByte(CLASS_BYTES);
+                out.writeUTF(classEntry);
+                out.writeInt(length);
+                out.write(classBytes, 0, length);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        public void commit(boolean containsAPI) {
+            if (out == null) return;
+            try {
+                out.writeByte(END);
+                out.writeBoolean(containsAPI);
+                out.close();
+                out = null;
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            LOGGER.warn("Unable to write discovery cache entry {}", target, e);
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (tmp == null) return;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {}
+                out = null;
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mitchej123.jarjar.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+import com.google.common.reflect.ClassPath;
+import com.mitchej123.jarjar.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for Guava's {@code ClassPath.from(ClassLoader)}, call sites in mods are redirected here by
+ * {@link com.mitchej123.jarjar.rfb.transformer.ClassPathScanTransformer}.
+ * <p>
+ * With {@link Config#indexedClassPath} on, jars mod discovery already scanned are listed from {@link ClassOwnership} instead of being read again,
+ * every other class path entry is scanned by Guava as usual. Only class files are known for the scanned jars, so {@link ClassPath#getResources()}
+ * misses their other resources, which is why it's opt-in. Relies on Guava 17's internals and falls back to the plain scan if they don't match.
+ */
+public final class IndexedClassPath {
+
+    private static final Logger LOGGER = LogManager.getLogger("IndexedClassPath");
+
+    private static boolean resolved;
+    private static Method classPathEntries;
+    private static Constructor<?> scannerConstructor;
+    private static Method scan;
+    private static Method resources;
+    private static Method resourceInfo;
+    // null if Guava's internals aren't usable
+    private static volatile Constructor<ClassPath> classPathConstructor;
+
+    private IndexedClassPath() {}
+
+    public static ClassPath from(ClassLoader classLoader) throws IOException {
+        final ClassOwnership ownership = Config.indexedClassPath ? ClassOwnership.get() : null;
+        if (ownership == null || !resolve()) return ClassPath.from(classLoader);
+        try {
+            final Object scanner = scannerConstructor.newInstance();
+            final ImmutableSortedSet.Builder<Object> indexed = new ImmutableSortedSet.Builder<>(Ordering.usingToString());
+            for (Map.Entry<?, ?> entry : ((ImmutableMap<?, ?>) classPathEntries.invoke(null, classLoader)).entrySet()) {
+                final URI uri = (URI) entry.getKey();
+                final ClassLoader loader = (ClassLoader) entry.getValue();
+                final List<String> classes = "file".equals(uri.getScheme()) ? ownership.getClassesIn(new File(uri)) : null;
+                if (classes == null) {
+                    scan.invoke(scanner, uri, loader);
+                    continue;
+                }
+                for (String className : classes) {
+                    indexed.add(resourceInfo.invoke(null, className.replace('.', '/') + ".class", loader));
+                }
+            }
+            indexed.addAll((ImmutableSet<?>) resources.invoke(scanner));
+            return classPathConstructor.newInstance(indexed.build());
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            return fallBack(classLoader, e.getCause());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return fallBack(classLoader, e);
+        }
+    }
+
+    /**
+     * Guava's internals didn't behave like 17.0's, scans go to the real ClassPath from now on.
+     */
+    private static ClassPath fallBack(ClassLoader classLoader, Throwable cause) throws IOException {
+        synchronized (IndexedClassPath.class) {
+            if (classPathConstructor != null) {
+                LOGGER.warn("Unsupported Guava ClassPath, class path scans won't use mod discovery's results", cause);
+                classPathConstructor = null;
+            }
+        }
+        return ClassPath.from(classLoader);
+    }
+
+    private static synchronized boolean resolve() {
+        if (resolved) return classPathConstructor != null;
+        resolved = true;
+        try {
+            final Class<?> scannerClass = Class.forName("com.google.common.reflect.ClassPath$Scanner", false, ClassPath.class.getClassLoader());
+            if (Modifier.isAbstract(scannerClass.getModifiers())) throw new IllegalStateException("ClassPath.Scanner is abstract");
+            final Class<?> resourceInfoClass = ClassPath.ResourceInfo.class;
+            classPathEntries = ClassPath.class.getDeclaredMethod("getClassPathEntries", ClassLoader.class);
+            scannerConstructor = scannerClass.getDeclaredConstructor();
+            scan = scannerClass.getDeclaredMethod("scan", URI.class, ClassLoader.class);
+            resources = scannerClass.getDeclaredMethod("getResources");
+            resourceInfo = resourceInfoClass.getDeclaredMethod("of", String.class, ClassLoader.class);
+            final Constructor<ClassPath> constructor = ClassPath.class.getDeclaredConstructor(ImmutableSet.class);
+            classPathEntries.setAccessible(true);
+            scannerConstructor.setAccessible(true);
+            scan.setAccessible(true);
+            resources.setAccessible(true);
+            resourceInfo.setAccessible(true);
+            constructor.setAccessible(true);
+            classPathConstructor = constructor;
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Unsupported Guava ClassPath, class path scans won't use mod discovery's results", e);
+            return false;
+        }
+    }
+}
@@ -22,13 +22,18 @@ package com.mitchej123.jarjar.discovery;
 import com.mitchej123.jarjar.fml.common.LoaderUtil;
 import com.mitchej123.jarjar.fml.common.ModContainerFactoryV2;
 import com.mitchej123.jarjar.fml.common.ModContainerWrapper;
+import com.mitchej123.jarjar.fml.common.discovery.ASMDataTableV2;
 import com.mitchej123.jarjar.fml.common.discovery.ModCandidateV2;
-import com.mitchej123.jarjar.fml.common.discovery.asm.ASMModParserV2;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotationPrescan;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
 import com.mitchej123.jarjar.fml.common.discovery.finder.ClasspathModCandidateFinder;
 import com.mitchej123.jarjar.fml.common.discovery.finder.DirectoryModCandidateFinder;
 import com.mitchej123.jarjar.fml.common.discovery.finder.ModCandidateFinder;
 import com.mitchej123.jarjar.util.DiscoveryPool;
 import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.MappedZipFile;
+import com.mitchej123.jarjar.util.NestedJarStore;
 import com.mitchej123.jarjar.util.RewindableModInputStream;
 import cpw.mods.fml.common.FMLLog;
 import cpw.mods.fml.common.LoaderException;
@@ -42,10 +47,12 @@ import cpw.mods.fml.relauncher.ModListHelper;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayDeque;
@@ -66,7 +73,6 @@ import java.util.concurrent.Future;
 import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -75,6 +81,9 @@ public class ParallellModDiscoverer extends ModDiscoverer {
     private static final Logger LOGGER = LogManager.getLogger("ParallellModDiscoverer");
     public static final String JARJAR_DEBUG_DISCOVERY_TIMEOUT = "jarjar.debug.discoveryTimeout";
     public static final String FORCE_LOAD_AS_MOD = "ForceLoadAsMod";
+    // Larger classes get a one-off array rather than pinning a huge buffer to the worker
+    private static final int MAX_RETAINED_CLASS_BUFFER = 4 * 1024 * 1024;
+    private static final ThreadLocal<byte[]> classBuffers = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
 
     public List<ModCandidateV2> getModCandidates() {
         return modCandidates;
@@ -85,9 +94,15 @@ public class ParallellModDiscoverer extends ModDiscoverer {
     private final Map<String, ModScanTask> jijDedupMap = new ConcurrentHashMap<>(); // avoids reading the same jar twice
     private final List<NestedModInitData> nestedModInitDatas = Collections.synchronizedList(new ArrayList<>()); // breaks potential cycles from deduplication
     private final File mcDir;
+    private final DiscoveryCache discoveryCache = new DiscoveryCache();
+    private final SharedJarScan sharedScan = SharedJarScan.fromBlackboard();
+    // scanned candidates go straight to the table so their parsed classes can be released, LoaderV2 prunes it after resolution
+    private final @Nullable ASMDataTableV2 stagingTable = getASMTable() instanceof ASMDataTableV2 table ? table : null;
 
 
     public ParallellModDiscoverer(File modsDir, ModClassLoader modClassLoader) {
+        NestedJarStore.ensureLoaded();
+        AnnotationPrescan.get();
         this.mcDir = modsDir;
         candidateFinders.add(new ClasspathModCandidateFinder(modClassLoader));
         candidateFinders.add(new DirectoryModCandidateFinder(
@@ -196,11 +211,33 @@ public class ParallellModDiscoverer extends ModDiscoverer {
         for (ModCandidateV2 c : modCandidates) {
             c.releaseNestedJars();
         }
+        if (exception == null) {
+            discoveryCache.pruneUnused();
+        }
+        sharedScan.release();
         candidateFinders.clear();
         jijDedupMap.clear();
         nestedModInitDatas.clear();
     }
 
+    private static boolean isScannedClass(String entryName) {
+        return !entryName.startsWith("__MACOSX") && !entryName.startsWith("META-INF/versions/")
+            && entryName.endsWith(".class") && !entryName.endsWith("$.class") && !entryName.endsWith("module-info.class");
+    }
+
+    /**
+     * @return this worker's class buffer, grown to hold at least size bytes. Only valid until the next call on the same thread.
+     */
+    private static byte[] classBuffer(long size) {
+        if (size > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Class too large: " + size);
+        final byte[] buffer = classBuffers.get();
+        if (size <= buffer.length) return buffer;
+        if (size > MAX_RETAINED_CLASS_BUFFER) return new byte[(int) size];
+        final byte[] grown = new byte[(int) Math.min(MAX_RETAINED_CLASS_BUFFER, Math.max(size, buffer.length * 2L))];
+        classBuffers.set(grown);
+        return grown;
+    }
+
     private static class NestedModInitData {
         final List<? extends Future<ModCandidateV2>> futures;
         final List<ModCandidateV2> target;
@@ -260,96 +297,230 @@ public class ParallellModDiscoverer extends ModDiscoverer {
             final File modFile = path.toFile();
             final String modFileName = modFile.getName();
             FMLRelaunchLog.fine("Examining for mod candidacy %s", modFileName);
-            final Attributes attributes;
-            final ModCandidateV2 modCandidate;
 
-            try (JarFile jar = new JarFile(modFile)) {
-                attributes = jar.getManifest() != null ? jar.getManifest().getMainAttributes() : new Attributes();
+            final ByteBuffer pendingContent = NestedJarStore.getPending(modFile);
+            final DiscoveryCache.CachedJar cached = pendingContent != null
+                ? discoveryCache.load(path, pendingContent.remaining(), DiscoveryCache.IN_MEMORY)
+                : discoveryCache.load(path);
+            if (cached != null) {
+                FMLRelaunchLog.finer("Using cached discovery data for %s", modFileName);
+                final ModCandidateV2 modCandidate = JarUtil.examineJarCandidate(cached.metadata(), modFile, null, false, isMinecraft, isClasspath);
+                if (modCandidate == null || skipClassScan(modCandidate, cached.metadata())) return modCandidate;
+
+                scheduleNestedJars(modCandidate);
+                modCandidate.setContainsAPI(cached.containsAPI());
+                final ClassCollector collector = new ClassCollector(modCandidate, cached.headers().size() + cached.classes().size());
+                for (ClassHeader header : cached.headers()) {
+                    collector.add(header);
+                }
+                for (AnnotatedClass annotatedClass : cached.classes()) {
+                    collector.add(annotatedClass);
+                }
+                return stage(modCandidate);
+            }
 
-                modCandidate = JarUtil.examineJarCandidate(jar, modFile, null, false, isMinecraft, isClasspath);
-                if(modCandidate == null) return null;
+            final MappedZipFile zip;
+            try {
+                zip = pendingContent != null ? new MappedZipFile(modFile.getPath(), pendingContent) : MappedZipFile.open(modFile);
+            } catch (IOException e) {
+                if (pendingContent != null) {
+                    FMLRelaunchLog.log(Level.ERROR, e, "Unable to read the nested jar %s - ignoring", modFileName);
+                    return null;
+                }
+                FMLRelaunchLog.fine("Falling back to JarFile for %s: %s", modFileName, e);
+                return computeWithJarFile(path, modFile);
+            }
 
-                // If the tweaker does not specify ForceLoadAsMod, return as we would in FML otherwise continue like we do in Mixins
-                if(modCandidate.hasTweaker() && !"true".equalsIgnoreCase(attributes.getValue(FORCE_LOAD_AS_MOD))) {
+            // Everything read out of the zip is copied, so it can be unmapped as soon as the scan is done
+            try (zip; DiscoveryCache.Writer cacheWriter = pendingContent != null
+                ? discoveryCache.writer(path, pendingContent.remaining(), DiscoveryCache.IN_MEMORY)
+                : discoveryCache.writer(path)) {
+                final JarUtil.JarMetadata sharedMetadata = pendingContent == null ? sharedScan.take(path) : null;
+                final JarUtil.JarMetadata metadata = sharedMetadata != null ? sharedMetadata : JarUtil.readJarMetadata(zip, false);
+                cacheWriter.writeMetadata(metadata);
+
+                final ModCandidateV2 modCandidate = JarUtil.examineJarCandidate(metadata, modFile, null, false, isMinecraft, isClasspath);
+                if (modCandidate == null || skipClassScan(modCandidate, metadata)) {
+                    cacheWriter.commit(false);
                     return modCandidate;
                 }
 
-                if (modCandidate.hasNestedJars()) {
-                    final List<ModScanTask> tasks = new ArrayList<>(5);
-                    ModScanTask localTask = null;
-                    for(JarUtil.NestedJar nestedJar : modCandidate.getNestedJars()) {
-                        ModScanTask task = jijDedupMap.get(nestedJar.hash());
-                        if (task == null) {
-                            task = new ModScanTask(Collections.singletonList(nestedJar.file().toPath()), true);
-                            ModScanTask prev = jijDedupMap.putIfAbsent(nestedJar.hash(), task);
-                            if (prev != null) {
-                                task = prev;
-                            } else if (localTask == null) { // don't fork first task, leave it for this thread
-                                localTask = task;
-                            } else {
-                                task.fork();
-                            }
-                        }
-                        tasks.add(task);
-                    }
-                    if(tasks.size() > 0) {
-                        if (localTask != null) localTask.invoke();
-                        List<ModCandidateV2> nestedMods = new ArrayList<>();
-                        modCandidate.setNestedModcandidates(nestedMods);
-                        nestedModInitDatas.add(new NestedModInitData(tasks, nestedMods));
-                    }
-                } else {
-                    modCandidate.setNestedModcandidates(Collections.emptyList());
+                scheduleNestedJars(modCandidate);
+
+                final ClassCollector collector = new ClassCollector(modCandidate, zip.size());
+                for (int i = 0; i < zip.size(); i++) {
+                    final String entryName = zip.getName(i);
+                    if (!isScannedClass(entryName)) continue;
+                    final byte[] classBytes = classBuffer(zip.getSize(i));
+                    final int length = zip.readBytes(i, classBytes);
+                    if (!scanClass(entryName, classBytes, length, modFileName, cacheWriter, collector)) return null;
                 }
+                cacheWriter.commit(modCandidate.containsAPIAnnotations());
+                return stage(modCandidate);
 
+            } catch (IOException ioe) {
+                FMLRelaunchLog.log(Level.ERROR, ioe, "Unable to read the jar file %s - ignoring", modFileName);
+                return null;
+            }
+        }
 
-                Enumeration<JarEntry> entries = jar.entries();
-                final ModContainerFactoryV2 modContainerFactory = (ModContainerFactoryV2) ModContainerFactory.instance();
-                final int sizeHint = Math.max(16, jar.size() / 8);
-                final List<ModContainerWrapper> wrappedModList = new ArrayList<>(sizeHint);
-                final List<ModContainer> modList = new ArrayList<>(sizeHint);
-                final List<ASMModParserV2> asmDataCollection = modCandidate.getAsmDataCollection();
-                modCandidate.setWrappedMods(wrappedModList);
-                modCandidate.setMods(modList);
+        /**
+         * Scans through {@link JarFile}, for archives {@link MappedZipFile} can't read.
+         */
+        private ModCandidateV2 computeWithJarFile(Path path, File modFile) {
+            final String modFileName = modFile.getName();
+            try (JarFile jar = new JarFile(modFile); DiscoveryCache.Writer cacheWriter = discoveryCache.writer(path)) {
+                final JarUtil.JarMetadata sharedMetadata = sharedScan.take(path);
+                final JarUtil.JarMetadata metadata = sharedMetadata != null ? sharedMetadata : JarUtil.readJarMetadata(jar, false);
+                cacheWriter.writeMetadata(metadata);
+
+                final ModCandidateV2 modCandidate = JarUtil.examineJarCandidate(metadata, modFile, null, false, isMinecraft, isClasspath);
+                if (modCandidate == null || skipClassScan(modCandidate, metadata)) {
+                    cacheWriter.commit(false);
+                    return modCandidate;
+                }
+
+                scheduleNestedJars(modCandidate);
 
+                final Enumeration<JarEntry> entries = jar.entries();
+                final ClassCollector collector = new ClassCollector(modCandidate, jar.size());
                 while (entries.hasMoreElements()) {
                     final JarEntry entry = entries.nextElement();
                     final String entryName = entry.getName();
-                    final ASMModParserV2 asmData;
-                    if (entry.isDirectory() || entryName.startsWith("__MACOSX") || entryName.startsWith("META-INF/versions/")
-                        || !entryName.endsWith(".class") || entryName.endsWith("$.class") || entryName.endsWith("module-info.class"))
-                        continue;
+                    final byte[] classBytes;
+                    final int length;
+                    if (entry.isDirectory() || !isScannedClass(entryName)) continue;
                     try (final InputStream classStream = jar.getInputStream(entry)) {
                         final long entrySize = entry.getSize();
                         if (entrySize >= 0) {
-                            final byte[] classBytes = new byte[(int) entrySize];
-                            classStream.readNBytes(classBytes, 0, classBytes.length);
-                            asmData = new ASMModParserV2(classBytes, entryName);
+                            classBytes = classBuffer(entrySize);
+                            length = classStream.readNBytes(classBytes, 0, (int) entrySize);
                         } else {
-                            asmData = new ASMModParserV2(classStream, entryName);
+                            classBytes = classStream.readAllBytes();
+                            length = classBytes.length;
                         }
-                    } catch (LoaderException e) {
-                        FMLRelaunchLog.log(Level.ERROR, e, "There was a problem reading the entry %s in the jar %s - probably a corrupt zip", entryName, modFileName);
-                        return null;
-                    }
-                    asmData.validate();
-                    asmDataCollection.add(asmData);
-
-                    final ModContainerWrapper wrapped = modContainerFactory.buildV2(asmData, modCandidate.getModContainer(), modCandidate);
-                    if(wrapped != null) {
-                        wrappedModList.add(wrapped);
-                        modList.add(wrapped.mod());
                     }
+                    if (!scanClass(entryName, classBytes, length, modFileName, cacheWriter, collector)) return null;
                 }
-
+                cacheWriter.commit(modCandidate.containsAPIAnnotations());
+                return stage(modCandidate);
 
             } catch (IOException ioe) {
                 FMLRelaunchLog.log(Level.ERROR, ioe, "Unable to read the jar file %s - ignoring", modFileName);
                 return null;
             }
+        }
+
+        /**
+         * Classes with annotations go through the full parser, all others only have their header read. The first length bytes of classBytes hold
+         * the class, the array is reused for the next one so nothing may keep a reference to it.
+         *
+         * @return false if the class couldn't be parsed, in which case the whole jar is ignored like FML does
+         */
+        private boolean scanClass(String entryName, byte[] classBytes, int length, String modFileName, DiscoveryCache.Writer cacheWriter,
+            ClassCollector collector) throws IOException {
+            if (AnnotationPrescan.needsFullParse(classBytes, length)) {
+                final AnnotatedClass annotatedClass;
+                try {
+                    annotatedClass = AnnotatedClass.read(classBytes, length, entryName);
+                } catch (LoaderException e) {
+                    FMLRelaunchLog.log(Level.ERROR, e, "There was a problem reading the entry %s in the jar %s - probably a corrupt zip", entryName, modFileName);
+                    return false;
+                }
+                cacheWriter.writeClassBytes(entryName, classBytes, length);
+                collector.add(annotatedClass);
+            } else {
+                final ClassHeader header = ClassHeader.read(classBytes, 0, length, entryName);
+                if (header == null) {
+                    FMLRelaunchLog.log(Level.ERROR, "There was a problem reading the entry %s in the jar %s - probably a corrupt zip", entryName, modFileName);
+                    return false;
+                }
+                cacheWriter.writeClassHeader(header);
+                collector.add(header);
+            }
+            return true;
+        }
+
+        private ModCandidateV2 stage(ModCandidateV2 modCandidate) {
+            if (stagingTable != null) stagingTable.stage(modCandidate);
             return modCandidate;
         }
 
+        /**
+         * If the tweaker does not specify ForceLoadAsMod, return as we would in FML otherwise continue like we do in Mixins
+         */
+        private boolean skipClassScan(ModCandidateV2 modCandidate, JarUtil.JarMetadata metadata) {
+            return modCandidate.hasTweaker()
+                && (metadata.manifest() == null || !"true".equalsIgnoreCase(metadata.manifest().getMainAttributes().getValue(FORCE_LOAD_AS_MOD)));
+        }
+
+        private void scheduleNestedJars(ModCandidateV2 modCandidate) {
+            if (modCandidate.hasNestedJars()) {
+                final List<ModScanTask> tasks = new ArrayList<>(5);
+                ModScanTask localTask = null;
+                for(JarUtil.NestedJar nestedJar : modCandidate.getNestedJars()) {
+                    ModScanTask task = jijDedupMap.get(nestedJar.hash());
+                    if (task == null) {
+                        task = new ModScanTask(Collections.singletonList(nestedJar.file().toPath()), true);
+                        ModScanTask prev = jijDedupMap.putIfAbsent(nestedJar.hash(), task);
+                        if (prev != null) {
+                            task = prev;
+                        } else if (localTask == null) { // don't fork first task, leave it for this thread
+                            localTask = task;
+                        } else {
+                            task.fork();
+                        }
+                    }
+                    tasks.add(task);
+                }
+                if(tasks.size() > 0) {
+                    if (localTask != null) localTask.invoke();
+                    List<ModCandidateV2> nestedMods = new ArrayList<>();
+                    modCandidate.setNestedModcandidates(nestedMods);
+                    nestedModInitDatas.add(new NestedModInitData(tasks, nestedMods));
+                }
+            } else {
+                modCandidate.setNestedModcandidates(Collections.emptyList());
+            }
+        }
+
+    }
+
+    /**
+     * Collects the parsed classes of a candidate and builds mod containers for the ones carrying mod annotations.
+     */
+    private static final class ClassCollector {
+        private final ModCandidateV2 modCandidate;
+        private final ModContainerFactoryV2 modContainerFactory = (ModContainerFactoryV2) ModContainerFactory.instance();
+        private final List<ModContainerWrapper> wrappedModList;
+        private final List<ModContainer> modList;
+        private final List<AnnotatedClass> annotatedClasses;
+        private final List<ClassHeader> classHeaders;
+
+        ClassCollector(ModCandidateV2 modCandidate, int classCount) {
+            final int sizeHint = Math.max(16, classCount / 8);
+            this.modCandidate = modCandidate;
+            this.wrappedModList = new ArrayList<>(sizeHint);
+            this.modList = new ArrayList<>(sizeHint);
+            this.annotatedClasses = modCandidate.getAnnotatedClasses();
+            this.classHeaders = modCandidate.getClassHeaders();
+            modCandidate.setWrappedMods(wrappedModList);
+            modCandidate.setMods(modList);
+        }
+
+        void add(AnnotatedClass annotatedClass) {
+            annotatedClasses.add(annotatedClass);
+
+            final ModContainerWrapper wrapped = modContainerFactory.buildV2(annotatedClass, modCandidate.getModContainer(), modCandidate);
+            if(wrapped != null) {
+                wrappedModList.add(wrapped);
+                modList.add(wrapped.mod());
+            }
+        }
+
+        void add(ClassHeader header) {
+            classHeaders.add(header);
+        }
     }
 
 }
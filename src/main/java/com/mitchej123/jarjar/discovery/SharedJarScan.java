@@ -0,0 +1,120 @@
+package com.mitchej123.jarjar.discovery;
+
+import com.mitchej123.jarjar.fml.common.LoaderUtil;
+import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.NestedJarStore;
+import net.minecraft.launchwrapper.Launch;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Manifest;
+
+/**
+ * Jar metadata read during the coremod pass, handed forward to the mod pass so it doesn't have to read manifests and mcmod.info or hash and extract
+ * nested jars a second time.
+ * <p>
+ * The coremod pass and the mod pass can run on different classloaders, each with its own copy of the JarJar classes, so the results travel through
+ * {@link Launch#blackboard} encoded using JDK types only.
+ */
+public final class SharedJarScan {
+
+    public static final String BLACKBOARD_KEY = "jarjar.sharedJarScan";
+
+    // size, mtime, manifest, mcmod.info, nested jar files, nested jar source filenames, nested jar hashes, nested jar entry names
+    private static final int SIZE = 0, MTIME = 1, MANIFEST = 2, MOD_INFO = 3, NESTED_FILES = 4, NESTED_NAMES = 5, NESTED_HASHES = 6,
+        NESTED_ENTRIES = 7;
+
+    private final @Nullable Map<String, Object[]> scans;
+
+    private SharedJarScan(@Nullable Map<String, Object[]> scans) {
+        this.scans = scans;
+    }
+
+    /**
+     * Starts collecting scan results and publishes them on the blackboard. Must be called before any worker thread starts recording.
+     */
+    public static SharedJarScan create() {
+        final Map<String, Object[]> scans = new ConcurrentHashMap<>();
+        Launch.blackboard.put(BLACKBOARD_KEY, scans);
+        return new SharedJarScan(scans);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static SharedJarScan fromBlackboard() {
+        return new SharedJarScan((Map<String, Object[]>) Launch.blackboard.get(BLACKBOARD_KEY));
+    }
+
+    public void put(File file, JarUtil.JarMetadata metadata) {
+        if (scans == null) return;
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return;
+        }
+        final int nestedCount = metadata.nestedJars().size();
+        final String[] nestedFiles = new String[nestedCount];
+        final String[] nestedNames = new String[nestedCount];
+        final String[] nestedHashes = new String[nestedCount];
+        final String[] nestedEntries = new String[nestedCount];
+        for (int i = 0; i < nestedCount; i++) {
+            final JarUtil.NestedJar nestedJar = metadata.nestedJars().get(i);
+            nestedFiles[i] = nestedJar.file().getPath();
+            nestedNames[i] = nestedJar.sourceFilename();
+            nestedHashes[i] = nestedJar.hash();
+            nestedEntries[i] = nestedJar.entryName();
+        }
+        scans.put(
+            keyOf(file.toPath()),
+            new Object[] { attributes.size(), attributes.lastModifiedTime().toMillis(), metadata.manifest(), metadata.modInfo(), nestedFiles, nestedNames,
+                nestedHashes, nestedEntries });
+    }
+
+    /**
+     * @return the metadata recorded for the jar at path during the coremod pass, or null if there is none or the file changed since
+     */
+    public @Nullable JarUtil.JarMetadata take(Path path) {
+        if (scans == null) return null;
+        final Object[] scan = scans.remove(keyOf(path));
+        if (scan == null) return null;
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if ((Long) scan[SIZE] != attributes.size() || (Long) scan[MTIME] != attributes.lastModifiedTime().toMillis()) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        final String[] nestedFiles = (String[]) scan[NESTED_FILES];
+        final String[] nestedNames = (String[]) scan[NESTED_NAMES];
+        final String[] nestedHashes = (String[]) scan[NESTED_HASHES];
+        final String[] nestedEntries = (String[]) scan[NESTED_ENTRIES];
+        final List<JarUtil.NestedJar> nestedJars = nestedFiles.length == 0 ? Collections.emptyList() : new ArrayList<>(nestedFiles.length);
+        for (int i = 0; i < nestedFiles.length; i++) {
+            final File file = new File(nestedFiles[i]);
+            if (!file.isFile() && !NestedJarStore.isPending(file)) return null;
+            nestedJars.add(new JarUtil.NestedJar(file, nestedNames[i], nestedHashes[i], nestedEntries[i]));
+        }
+        return new JarUtil.JarMetadata((Manifest) scan[MANIFEST], (byte[]) scan[MOD_INFO], nestedJars, null);
+    }
+
+    /**
+     * Drops whatever the mod pass didn't pick up.
+     */
+    public void release() {
+        if (scans == null) return;
+        scans.clear();
+        Launch.blackboard.remove(BLACKBOARD_KEY);
+    }
+
+    private static String keyOf(Path path) {
+        return LoaderUtil.normalizePath(path).toString();
+    }
+}
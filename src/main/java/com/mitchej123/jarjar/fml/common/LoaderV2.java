@@ -3,11 +3,15 @@ package com.mitchej123.jarjar.fml.common;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.mitchej123.jarjar.discovery.ClassOwnership;
 import com.mitchej123.jarjar.discovery.ModCandidateV2Sorter;
 import com.mitchej123.jarjar.discovery.ParallellModDiscoverer;
 import com.mitchej123.jarjar.discovery.SortableCandidate;
+import com.mitchej123.jarjar.fml.common.discovery.ASMDataTableV2;
 import com.mitchej123.jarjar.fml.common.discovery.ModCandidateV2;
 import com.mitchej123.jarjar.util.DiscoveryPool;
+import com.mitchej123.jarjar.util.NamePool;
+import com.mitchej123.jarjar.util.NestedJarStore;
 import cpw.mods.fml.common.CertificateHelper;
 import cpw.mods.fml.common.FMLLog;
 import cpw.mods.fml.common.InjectedModContainer;
@@ -29,7 +33,9 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
@@ -48,6 +54,13 @@ public class LoaderV2 extends Loader {
         super();
     }
 
+    /**
+     * @return the ASM table of this launch's mod discovery, or null before discovery ran
+     */
+    public @Nullable ASMDataTable getASMDataTable() {
+        return discoverer != null ? discoverer.getASMTable() : null;
+    }
+
     @Override
     @SuppressWarnings("deprecation")
     public void loadMods() {
@@ -191,6 +204,7 @@ public class LoaderV2 extends Loader {
                 // and their jar added to classpath for runtime class availability
                 final ModCandidateV2 candidate = apiWrapper.candidate();
                 uniqueCandidates.add(candidate);
+                NestedJarStore.materializePending(candidate.getModContainer());
                 try {
                     modClassLoader.addFile(candidate.getModContainer());
                 } catch (MalformedURLException e) {
@@ -199,8 +213,24 @@ public class LoaderV2 extends Loader {
             }
         }
         for (ModCandidateV2 candidate : uniqueCandidates) {
-            candidate.sendToTable(dataTable);
+            NestedJarStore.materializePending(candidate.getModContainer());
+            // scanned candidates were staged by the discoverer already
+            if (!candidate.isSentToTable()) candidate.sendToTable(dataTable);
+        }
+        if (dataTable instanceof ASMDataTableV2 table) {
+            table.retainCandidates(uniqueCandidates);
+        }
+        // everything that ends up on the classpath: resolved candidates, then non-mod libs
+        final Set<File> nonModLibFiles = new HashSet<>(nonModLibs);
+        final List<ModCandidateV2> classpathCandidates = new ArrayList<>(uniqueCandidates);
+        for (ModCandidateV2 candidate : modCandidates) {
+            if (nonModLibFiles.contains(candidate.getModContainer())) classpathCandidates.add(candidate);
+        }
+        ClassOwnership.publish(classpathCandidates);
+        for (File nonModLib : nonModLibs) {
+            NestedJarStore.materializePending(nonModLib);
         }
+        NestedJarStore.releasePending();
 
         modCandidates.forEach(ModCandidateV2::releaseParsedData);
 
@@ -208,6 +238,7 @@ public class LoaderV2 extends Loader {
         namedMods = Maps.uniqueIndex(mods, new ModIdFunction());
         FMLLog.info("Forge Mod Loader has identified %d mod%s to load", mods.size(), mods.size() != 1 ? "s" : "");
         DiscoveryPool.shutdown();
+        NamePool.release();
         return discoverer;
 
     }
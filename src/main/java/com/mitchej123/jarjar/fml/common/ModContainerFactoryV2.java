@@ -1,35 +1,43 @@
 package com.mitchej123.jarjar.fml.common;
 
 import com.mitchej123.jarjar.fml.common.discovery.ModCandidateV2;
-import com.mitchej123.jarjar.fml.common.discovery.asm.ASMModParserV2;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
 import cpw.mods.fml.common.FMLLog;
 import cpw.mods.fml.common.MetadataCollection;
 import cpw.mods.fml.common.ModContainer;
 import cpw.mods.fml.common.ModContainerFactory;
-import cpw.mods.fml.common.discovery.asm.ModAnnotation;
 import org.apache.logging.log4j.Level;
+import org.objectweb.asm.Type;
 
 import java.io.File;
+import java.util.Set;
 
 public class ModContainerFactoryV2 extends ModContainerFactory {
 
+    /**
+     * @return the annotation types that declare a mod container
+     */
+    public static Set<Type> getModTypes() {
+        return modTypes.keySet();
+    }
+
     @SuppressWarnings("unused")
-    public ModContainerWrapper buildV2(ASMModParserV2 modParser, File modSource, ModCandidateV2 candidate) {
-        final String className = modParser.getASMType().getClassName();
-        for (ModAnnotation ann : modParser.getAnnotations()) {
-            if (modTypes.containsKey(ann.getASMType())) {
-                FMLLog.fine("Identified a mod of type %s (%s) - loading", ann.getASMType(), className);
+    public ModContainerWrapper buildV2(AnnotatedClass annotatedClass, File modSource, ModCandidateV2 candidate) {
+        final String className = annotatedClass.getClassName();
+        for (AnnotatedClass.Annotation ann : annotatedClass.getAnnotations()) {
+            if (modTypes.containsKey(ann.type())) {
+                FMLLog.fine("Identified a mod of type %s (%s) - loading", ann.type(), className);
                 try {
-                    final ModContainer mod = modTypes.get(ann.getASMType()).newInstance(className, candidate, ann.getValues());
+                    final ModContainer mod = modTypes.get(ann.type()).newInstance(className, candidate, ann.values());
                     final MetadataCollection metadataCollection = candidate.getMetadataCollection();
                     mod.bindMetadata(metadataCollection);
 
-                    return new ModContainerWrapper(mod, candidate, modParser);
+                    return new ModContainerWrapper(mod, candidate, annotatedClass);
                 } catch (Exception e) {
-                    FMLLog.log(Level.ERROR, e, "Unable to construct %s container", ann.getASMType().getClassName());
+                    FMLLog.log(Level.ERROR, e, "Unable to construct %s container", ann.type().getClassName());
                     return null;
                 }
-            } else if (!candidate.containsAPIAnnotations() && "Lcpw/mods/fml/common/API;".equals(ann.getASMType().getDescriptor())) {
+            } else if (!candidate.containsAPIAnnotations() && "Lcpw/mods/fml/common/API;".equals(ann.type().getDescriptor())) {
                 candidate.setContainsAPI(true);
                 FMLLog.fine("Found @API annotation in %s (%s)", candidate.getFilename(), className);
             }
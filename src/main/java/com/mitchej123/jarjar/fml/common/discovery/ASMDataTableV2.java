@@ -1,26 +1,79 @@
 package com.mitchej123.jarjar.fml.common.discovery;
 
-import com.google.common.collect.ImmutableMap;
+import com.github.bsideup.jabel.Desugar;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.SetMultimap;
 import com.gtnewhorizons.retrofuturabootstrap.versioning.DefaultArtifactVersion;
+import com.mitchej123.jarjar.fml.common.LoaderUtil;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+import com.mitchej123.jarjar.util.DiscoveryPool;
 import cpw.mods.fml.common.ModContainer;
 import cpw.mods.fml.common.discovery.ASMDataTable;
 import cpw.mods.fml.common.discovery.ModCandidate;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+/**
+ * ASMDataTable storing its entries column by column instead of as one ASMData per annotation and interface in a multimap.
+ * <p>
+ * Each row is a candidate id, an annotation type id, the class and object names and the annotation values, with a list of rows per annotation type.
+ * Implemented interfaces aren't rows, classes go to a {@link TypeHierarchy} as {@link ClassHeader}s, which also answers {@link #getSubtypes}. ASMData
+ * objects, annotation and interface ones alike, are only created for the entries returned by {@link #getAll(String)} and
+ * {@link #getAnnotationsFor(ModContainer)}, and then kept so both hand out the same instances. {@code globalAnnotationData} stays empty.
+ * <p>
+ * Candidates are {@link #stage staged} by the discovery workers as soon as their scan is done: each worker builds the entries of its candidate into
+ * a shard of its own, without locking the table. {@link #retainCandidates} then merges the shards of the candidates that made it through mod
+ * resolution, drops the others, and puts the rows in resolution order.
+ */
 @SuppressWarnings("unused")
-public class ASMDataTableV2 extends ASMDataTable {
+public class ASMDataTableV2 extends ASMDataTable implements ClassSink {
     private static final String API_ANNOTATION = "cpw.mods.fml.common.API";
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final List<ModCandidate> candidates = new ArrayList<>();
+    private Map<ModCandidate, Integer> candidateIds = new IdentityHashMap<>();
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> typeIds = new HashMap<>();
+    private final List<RowList> rowsByType = new ArrayList<>();
+
+    private int size;
+    private int[] candidateColumn = new int[INITIAL_CAPACITY];
+    private int[] typeColumn = new int[INITIAL_CAPACITY];
+    private String[] classNameColumn = new String[INITIAL_CAPACITY];
+    private String[] objectNameColumn = new String[INITIAL_CAPACITY];
+    private Map<?, ?>[] annotationInfoColumn = new Map<?, ?>[INITIAL_CAPACITY];
+    private ASMData[] materialized;
+    private final TypeHierarchy hierarchy = new TypeHierarchy();
+    // interface entries by hierarchy row, then by index in the class' interfaces
+    private ASMData[][] materializedInterfaces;
+
+    private final Map<String, Set<ASMData>> allByType = new HashMap<>();
+    private Set<ASMData> sortedApiSource;
+    private Set<ASMData> sortedApi;
+    private final Map<ModCandidate, Shard> shards = new IdentityHashMap<>();
+    // entries of the jars holding a container, and the row grouping they're built from, dropped whenever rows change
+    private Map<File, ImmutableSetMultimap<String, ASMData>> entriesBySource;
+    private RowsByCandidate rowsByCandidate;
+    // normalized paths of the candidates' jars, built on the first hasClassesFrom
+    private Set<String> sourceKeys;
 
     public ASMDataTableV2() {
         super();
@@ -28,14 +81,246 @@ public class ASMDataTableV2 extends ASMDataTable {
     }
 
     @Override
-    public Set<ASMData> getAll(String annotation) {
-        final Set<ASMData> all = super.getAll(annotation);
-        if (!API_ANNOTATION.equals(annotation) || all == null || all.size() < 2) {
+    public synchronized void addASMData(ModCandidate candidate, String annotation, String className, String objectName,
+        Map<String, Object> annotationInfo) {
+        if (size == candidateColumn.length) grow();
+        final int row = size++;
+        candidateColumn[row] = candidateId(candidate);
+        final int type = typeId(annotation);
+        typeColumn[row] = type;
+        classNameColumn[row] = className;
+        objectNameColumn[row] = objectName;
+        annotationInfoColumn[row] = annotationInfo;
+        rowsByType.get(type).add(row);
+        rowsByCandidate = null;
+    }
+
+    /**
+     * Adds a class, standing for the interface entries FML would add for it.
+     */
+    @Override
+    public synchronized void addClass(ModCandidate candidate, ClassHeader header) {
+        hierarchy.add(candidateId(candidate), header);
+        rowsByCandidate = null;
+    }
+
+    private int candidateId(ModCandidate candidate) {
+        final int last = candidates.size() - 1;
+        // rows are added one candidate at a time
+        if (last >= 0 && candidates.get(last) == candidate) return last;
+        return candidateIds.computeIfAbsent(candidate, c -> {
+            candidates.add(c);
+            sourceKeys = null;
+            return candidates.size() - 1;
+        });
+    }
+
+    private int typeId(String annotation) {
+        return typeIds.computeIfAbsent(annotation, a -> {
+            types.add(a);
+            rowsByType.add(new RowList());
+            return types.size() - 1;
+        });
+    }
+
+    /**
+     * Builds the entries of a scanned candidate into a shard and releases its classes. Called from discovery workers, the shard only shows up in
+     * the table once {@link #retainCandidates} merges it.
+     */
+    public void stage(ModCandidateV2 candidate) {
+        final Shard shard = new Shard(candidate);
+        candidate.sendToTable(shard);
+        candidate.setTable(this);
+        candidate.releaseClasses();
+        synchronized (this) {
+            shards.put(candidate, shard);
+        }
+    }
+
+    @Override
+    public synchronized void registerPackage(ModCandidate candidate, String pkg) {
+        super.registerPackage(candidate, pkg);
+    }
+
+    /**
+     * Keeps only the rows and packages of the given candidates, staged or not, with rows ordered like the candidates, and drops everything else.
+     */
+    public synchronized void retainCandidates(Collection<? extends ModCandidate> retained) {
+        final Map<ModCandidate, Integer> newIds = new IdentityHashMap<>(retained.size() * 2);
+        for (ModCandidate candidate : retained) {
+            newIds.putIfAbsent(candidate, newIds.size());
+        }
+        for (ModCandidate candidate : newIds.keySet()) {
+            final Shard shard = shards.get(candidate);
+            if (shard != null) shard.mergeInto(this);
+        }
+        shards.clear();
+
+        final int[] newIdById = new int[candidates.size()];
+        for (int id = 0; id < newIdById.length; id++) {
+            final Integer newId = newIds.get(candidates.get(id));
+            newIdById[id] = newId != null ? newId : -1;
+        }
+
+        // counting sort of the rows by new candidate id, keeping the order of rows within a candidate
+        final int[] starts = new int[newIds.size() + 1];
+        for (int row = 0; row < size; row++) {
+            final int newId = newIdById[candidateColumn[row]];
+            if (newId >= 0) starts[newId + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        final int newSize = starts[newIds.size()];
+        final int[] newCandidateColumn = new int[newSize];
+        final int[] newTypeColumn = new int[newSize];
+        final String[] newClassNameColumn = new String[newSize];
+        final String[] newObjectNameColumn = new String[newSize];
+        final Map<?, ?>[] newAnnotationInfoColumn = new Map<?, ?>[newSize];
+        final ASMData[] newMaterialized = materialized != null ? new ASMData[newSize] : null;
+        for (int row = 0; row < size; row++) {
+            final int newId = newIdById[candidateColumn[row]];
+            if (newId < 0) continue;
+            final int newRow = starts[newId]++;
+            newCandidateColumn[newRow] = newId;
+            newTypeColumn[newRow] = typeColumn[row];
+            newClassNameColumn[newRow] = classNameColumn[row];
+            newObjectNameColumn[newRow] = objectNameColumn[row];
+            newAnnotationInfoColumn[newRow] = annotationInfoColumn[row];
+            if (newMaterialized != null) newMaterialized[newRow] = materialized[row];
+        }
+        size = newSize;
+        candidateColumn = newCandidateColumn;
+        typeColumn = newTypeColumn;
+        classNameColumn = newClassNameColumn;
+        objectNameColumn = newObjectNameColumn;
+        annotationInfoColumn = newAnnotationInfoColumn;
+        materialized = newMaterialized;
+
+        final int[] movedClasses = hierarchy.retain(newIdById, newIds.size());
+        if (materializedInterfaces != null) {
+            final ASMData[][] newMaterializedInterfaces = new ASMData[hierarchy.size()][];
+            for (int row = 0; row < movedClasses.length && row < materializedInterfaces.length; row++) {
+                if (movedClasses[row] >= 0) newMaterializedInterfaces[movedClasses[row]] = materializedInterfaces[row];
+            }
+            materializedInterfaces = newMaterializedInterfaces;
+        }
+
+        for (RowList rows : rowsByType) {
+            rows.size = 0;
+        }
+        for (int row = 0; row < size; row++) {
+            rowsByType.get(typeColumn[row]).add(row);
+        }
+        candidates.clear();
+        candidates.addAll(newIds.keySet());
+        candidates.sort(Comparator.comparingInt(newIds::get));
+        candidateIds = newIds;
+        sourceKeys = null;
+        allByType.clear();
+        packageMap.entries().removeIf(e -> !newIds.containsKey(e.getValue()));
+        rowsByCandidate = null;
+        // built now rather than on the first getAnnotationsFor, which would otherwise pay for the whole table during the first mod's construction
+        buildContainerIndex(true);
+    }
+
+    private void grow() {
+        final int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+        candidateColumn = Arrays.copyOf(candidateColumn, capacity);
+        typeColumn = Arrays.copyOf(typeColumn, capacity);
+        classNameColumn = Arrays.copyOf(classNameColumn, capacity);
+        objectNameColumn = Arrays.copyOf(objectNameColumn, capacity);
+        annotationInfoColumn = Arrays.copyOf(annotationInfoColumn, capacity);
+        if (materialized != null) materialized = Arrays.copyOf(materialized, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ASMData data(int row) {
+        if (materialized == null) materialized = new ASMData[candidateColumn.length];
+        ASMData data = materialized[row];
+        if (data == null) {
+            data = new ASMData(
+                candidates.get(candidateColumn[row]),
+                types.get(typeColumn[row]),
+                classNameColumn[row],
+                objectNameColumn[row],
+                (Map<String, Object>) annotationInfoColumn[row]);
+            materialized[row] = data;
+        }
+        return data;
+    }
+
+    private void ensureInterfaceCapacity() {
+        if (materializedInterfaces == null) {
+            materializedInterfaces = new ASMData[hierarchy.size()][];
+        } else if (materializedInterfaces.length < hierarchy.size()) {
+            materializedInterfaces = Arrays.copyOf(materializedInterfaces, hierarchy.size());
+        }
+    }
+
+    /**
+     * @return the entry FML would have for the index-th interface of the class at a hierarchy row, call {@link #ensureInterfaceCapacity} first
+     */
+    private ASMData interfaceData(int row, int index) {
+        ASMData[] data = materializedInterfaces[row];
+        final ClassHeader header = hierarchy.header(row);
+        if (data == null) {
+            data = new ASMData[header.getInterfaces().length];
+            materializedInterfaces[row] = data;
+        }
+        if (data[index] == null) {
+            data[index] = new ASMData(candidates.get(hierarchy.candidate(row)), header.getInterfaces()[index], header.getName(), null, null);
+        }
+        return data[index];
+    }
+
+    /**
+     * @return the entries for an annotation or interface, annotations in the order they were added then implementing classes in the order they were
+     * added, except for {@code @API} which is sorted by descending apiVersion into a cached immutable set
+     */
+    @Override
+    public synchronized Set<ASMData> getAll(String annotation) {
+        final Integer type = typeIds.get(annotation);
+        final RowList rows = type != null ? rowsByType.get(type) : null;
+        final RowList implementors = hierarchy.implementors(annotation);
+        if (rows == null && implementors == null) return Collections.emptySet();
+        final int expected = (rows != null ? rows.size : 0) + (implementors != null ? implementors.size : 0);
+        Set<ASMData> all = allByType.get(annotation);
+        if (all == null || all.size() != expected) {
+            all = new LinkedHashSet<>(Math.max(16, expected * 4 / 3 + 1));
+            for (int i = 0; rows != null && i < rows.size; i++) {
+                all.add(data(rows.rows[i]));
+            }
+            if (implementors != null) {
+                ensureInterfaceCapacity();
+                for (int i = 0; i < implementors.size; i++) {
+                    final int row = implementors.rows[i];
+                    final String[] interfaces = hierarchy.header(row).getInterfaces();
+                    for (int index = 0; index < interfaces.length; index++) {
+                        if (interfaces[index].equals(annotation)) all.add(interfaceData(row, index));
+                    }
+                }
+            }
+            allByType.put(annotation, all);
+        }
+        if (!API_ANNOTATION.equals(annotation)) {
             return all;
         }
-        final List<ASMData> sorted = new ArrayList<>(all);
-        sorted.sort(Comparator.comparing(ASMDataTableV2::apiVersionOf).reversed());
-        return new LinkedHashSet<>(sorted);
+        // rebuilt along with the set it's sorted from, whenever the table changes
+        if (sortedApiSource != all) {
+            final List<VersionedData> versioned = new ArrayList<>(all.size());
+            for (ASMData data : all) {
+                versioned.add(new VersionedData(apiVersionOf(data), data));
+            }
+            versioned.sort(Comparator.comparing(VersionedData::version).reversed());
+            final ImmutableSet.Builder<ASMData> sorted = ImmutableSet.builder();
+            for (VersionedData data : versioned) {
+                sorted.add(data.data());
+            }
+            sortedApi = sorted.build();
+            sortedApiSource = all;
+        }
+        return sortedApi;
     }
 
     private static DefaultArtifactVersion apiVersionOf(ASMData data) {
@@ -52,31 +337,247 @@ public class ASMDataTableV2 extends ASMDataTable {
         return new DefaultArtifactVersion(v);
     }
 
+    /**
+     * @param className binary name of a class or interface, with dots or slashes
+     * @return the binary names, with dots, of every scanned class extending or implementing it, directly or not. Classes directly extending
+     * {@code java.lang.Object} without interfaces aren't known.
+     */
+    public synchronized Set<String> getSubtypes(String className) {
+        return hierarchy.subtypes(className.replace('.', '/'));
+    }
+
+    /**
+     * @param source a jar or directory, as a path in any form
+     * @return true if the classes of source are in the table, so {@link #getSubtypes} knows every class it holds
+     */
+    public synchronized boolean hasClassesFrom(File source) {
+        if (sourceKeys == null) {
+            sourceKeys = new HashSet<>();
+            for (ModCandidate candidate : candidates) {
+                sourceKeys.add(LoaderUtil.normalizePath(candidate.getModContainer().toPath()).toString());
+            }
+        }
+        return sourceKeys.contains(LoaderUtil.normalizePath(source.toPath()).toString());
+    }
+
     @Override
-    public SetMultimap<String, ASMData> getAnnotationsFor(ModContainer container) {
+    public synchronized SetMultimap<String, ASMData> getAnnotationsFor(ModContainer container) {
         if (containerAnnotationData == null) {
-            final Map<File, ImmutableSetMultimap.Builder<String, ASMData>> builders = new HashMap<>();
-            for (Map.Entry<String, ASMData> e : globalAnnotationData.entries()) {
-                final ASMData data = e.getValue();
-                final ModCandidate cand = data.getCandidate();
-                if (cand == null) continue;
-                final File src = cand.getModContainer();
-                if (src == null) continue;
-                builders.computeIfAbsent(src, k -> ImmutableSetMultimap.builder()).put(e.getKey(), data);
-            }
-            final Map<File, ImmutableSetMultimap<String, ASMData>> bySource = new HashMap<>(builders.size());
-            for (Map.Entry<File, ImmutableSetMultimap.Builder<String, ASMData>> e : builders.entrySet()) {
-                bySource.put(e.getKey(), e.getValue().build());
-            }
-            final ImmutableMap.Builder<ModContainer, SetMultimap<String, ASMData>> out = ImmutableMap.builder();
-            for (ModContainer cont : containers) {
-                final File src = cont.getSource();
-                final ImmutableSetMultimap<String, ASMData> mm = src == null ? null : bySource.get(src);
-                out.put(cont, mm == null ? ImmutableSetMultimap.of() : mm);
-            }
-            containerAnnotationData = out.build();
+            // no retainCandidates, the DiscoveryPool may be gone by now
+            buildContainerIndex(false);
         }
         return containerAnnotationData.get(container);
     }
 
+    /**
+     * Containers added once the index is built, after {@link #retainCandidates}, are added to it, indexing their jar on its own if no other
+     * container came from it.
+     */
+    @Override
+    public synchronized void addContainer(ModContainer container) {
+        super.addContainer(container);
+        if (containerAnnotationData == null) return;
+        final File src = container.getSource();
+        if (src != null && !entriesBySource.containsKey(src)) indexSources(Collections.singleton(src), false);
+        containerAnnotationData.put(container, entriesOf(src));
+    }
+
+    /**
+     * Indexes the jars of every container added so far and maps the containers to their entries.
+     */
+    private void buildContainerIndex(boolean parallel) {
+        entriesBySource = new HashMap<>();
+        final Set<File> sources = new LinkedHashSet<>();
+        for (ModContainer cont : containers) {
+            if (cont.getSource() != null) sources.add(cont.getSource());
+        }
+        indexSources(sources, parallel);
+        containerAnnotationData = new HashMap<>();
+        for (ModContainer cont : containers) {
+            containerAnnotationData.put(cont, entriesOf(cont.getSource()));
+        }
+    }
+
+    private SetMultimap<String, ASMData> entriesOf(File src) {
+        final ImmutableSetMultimap<String, ASMData> entries = src == null ? null : entriesBySource.get(src);
+        return entries == null ? ImmutableSetMultimap.of() : entries;
+    }
+
+    /**
+     * Groups the rows of the candidates from the given jars by jar, one task per jar, run on the {@link DiscoveryPool} if parallel. Only rows from
+     * those jars are materialized.
+     */
+    private void indexSources(Collection<File> sources, boolean parallel) {
+        final Map<File, List<Integer>> candidatesBySource = new HashMap<>();
+        for (File src : sources) {
+            candidatesBySource.put(src, new ArrayList<>());
+        }
+        for (int id = 0; id < candidates.size(); id++) {
+            final ModCandidate cand = candidates.get(id);
+            final File src = cand == null ? null : cand.getModContainer();
+            final List<Integer> ids = src == null ? null : candidatesBySource.get(src);
+            if (ids != null) ids.add(id);
+        }
+        if (rowsByCandidate == null) rowsByCandidate = new RowsByCandidate(this);
+        final RowsByCandidate grouped = rowsByCandidate;
+
+        if (materialized == null) materialized = new ASMData[candidateColumn.length];
+        ensureInterfaceCapacity();
+        final Map<File, ImmutableSetMultimap<String, ASMData>> bySource = new ConcurrentHashMap<>();
+        final List<Callable<Void>> tasks = new ArrayList<>(candidatesBySource.size());
+        for (Map.Entry<File, List<Integer>> e : candidatesBySource.entrySet()) {
+            if (e.getValue().isEmpty()) continue;
+            tasks.add(() -> {
+                final ImmutableSetMultimap.Builder<String, ASMData> builder = ImmutableSetMultimap.builder();
+                for (int id : e.getValue()) {
+                    for (int i = grouped.starts[id]; i < grouped.starts[id + 1]; i++) {
+                        final int row = grouped.rows[i];
+                        builder.put(types.get(typeColumn[row]), data(row));
+                    }
+                    for (int i = grouped.classStarts[id]; i < grouped.classStarts[id + 1]; i++) {
+                        final int row = grouped.classes[i];
+                        final String[] interfaces = hierarchy.header(row).getInterfaces();
+                        for (int index = 0; index < interfaces.length; index++) {
+                            builder.put(interfaces[index], interfaceData(row, index));
+                        }
+                    }
+                }
+                bySource.put(e.getKey(), builder.build());
+                return null;
+            });
+        }
+        try {
+            if (parallel) {
+                for (Future<Void> future : DiscoveryPool.get().invokeAll(tasks)) {
+                    future.get();
+                }
+            } else {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing mod annotations", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to index mod annotations", e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to index mod annotations", e);
+        }
+        entriesBySource.putAll(bySource);
+    }
+
+    /**
+     * Row indices grouped by candidate: the rows of candidate id are {@code rows[starts[id]]} to {@code rows[starts[id + 1] - 1]}, and the same
+     * for hierarchy rows in {@code classes}.
+     */
+    private static final class RowsByCandidate {
+        final int[] starts;
+        final int[] rows;
+        final int[] classStarts;
+        final int[] classes;
+
+        RowsByCandidate(ASMDataTableV2 table) {
+            final int candidateCount = table.candidates.size();
+            starts = new int[candidateCount + 1];
+            for (int row = 0; row < table.size; row++) {
+                starts[table.candidateColumn[row] + 1]++;
+            }
+            for (int i = 1; i < starts.length; i++) {
+                starts[i] += starts[i - 1];
+            }
+            final int[] next = starts.clone();
+            rows = new int[table.size];
+            for (int row = 0; row < table.size; row++) {
+                rows[next[table.candidateColumn[row]]++] = row;
+            }
+            final int classCount = table.hierarchy.size();
+            classStarts = new int[candidateCount + 1];
+            for (int row = 0; row < classCount; row++) {
+                classStarts[table.hierarchy.candidate(row) + 1]++;
+            }
+            for (int i = 1; i < classStarts.length; i++) {
+                classStarts[i] += classStarts[i - 1];
+            }
+            final int[] nextClass = classStarts.clone();
+            classes = new int[classCount];
+            for (int row = 0; row < classCount; row++) {
+                classes[nextClass[table.hierarchy.candidate(row)]++] = row;
+            }
+        }
+    }
+
+    @Desugar private record VersionedData(DefaultArtifactVersion version, ASMData data) {
+    }
+
+    /**
+     * Entries of a single candidate, in the order they were added.
+     */
+    private static final class Shard extends ASMDataTable implements ClassSink {
+        private final ModCandidate candidate;
+        private final Set<String> packages = new LinkedHashSet<>();
+        private final List<ClassHeader> classes = new ArrayList<>();
+        private int size;
+        private String[] types = new String[64];
+        private String[] classNames = new String[64];
+        private String[] objectNames = new String[64];
+        private Map<?, ?>[] annotationInfos = new Map<?, ?>[64];
+
+        Shard(ModCandidate candidate) {
+            this.candidate = candidate;
+        }
+
+        @Override
+        public void addASMData(ModCandidate candidate, String annotation, String className, String objectName, Map<String, Object> annotationInfo) {
+            if (size == types.length) {
+                final int capacity = size + (size >> 1);
+                types = Arrays.copyOf(types, capacity);
+                classNames = Arrays.copyOf(classNames, capacity);
+                objectNames = Arrays.copyOf(objectNames, capacity);
+                annotationInfos = Arrays.copyOf(annotationInfos, capacity);
+            }
+            types[size] = annotation;
+            classNames[size] = className;
+            objectNames[size] = objectName;
+            annotationInfos[size] = annotationInfo;
+            size++;
+        }
+
+        @Override
+        public void registerPackage(ModCandidate candidate, String pkg) {
+            packages.add(pkg);
+        }
+
+        @Override
+        public void addClass(ModCandidate candidate, ClassHeader header) {
+            classes.add(header);
+        }
+
+        @SuppressWarnings("unchecked")
+        void mergeInto(ASMDataTableV2 table) {
+            for (int i = 0; i < size; i++) {
+                table.addASMData(candidate, types[i], classNames[i], objectNames[i], (Map<String, Object>) annotationInfos[i]);
+            }
+            for (ClassHeader header : classes) {
+                table.addClass(candidate, header);
+            }
+            for (String pkg : packages) {
+                table.registerPackage(candidate, pkg);
+            }
+        }
+    }
+
+    /**
+     * Growable list of row indices.
+     */
+    static final class RowList {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = row;
+        }
+    }
+
 }
@@ -0,0 +1,11 @@
+package com.mitchej123.jarjar.fml.common.discovery;
+
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+import cpw.mods.fml.common.discovery.ModCandidate;
+
+/**
+ * An ASMDataTable keeping classes as {@link ClassHeader}s rather than as one entry per implemented interface.
+ */
+interface ClassSink {
+    void addClass(ModCandidate candidate, ClassHeader header);
+}
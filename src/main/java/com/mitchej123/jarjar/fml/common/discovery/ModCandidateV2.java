@@ -3,8 +3,10 @@ package com.mitchej123.jarjar.fml.common.discovery;
 import com.gtnewhorizons.retrofuturabootstrap.versioning.DefaultArtifactVersion;
 import com.mitchej123.jarjar.discovery.SortableCandidate;
 import com.mitchej123.jarjar.fml.common.ModContainerWrapper;
-import com.mitchej123.jarjar.fml.common.discovery.asm.ASMModParserV2;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
 import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.NamePool;
 import cpw.mods.fml.common.MetadataCollection;
 import cpw.mods.fml.common.ModContainer;
 import cpw.mods.fml.common.discovery.ASMDataTable;
@@ -25,13 +27,15 @@ public class ModCandidateV2 extends ModCandidate implements SortableCandidate {
     private String fmlCorePlugin = null;
     private boolean containsMod = false;
     private boolean containsAPI = false;
+    private boolean sentToTable = false;
 
     private Collection<ModCandidateV2> nestedModcandidates = null;
     private Collection<ModCandidateV2> parentModcandidates;
     private int nestLevel = 0;
 
     private List<ModContainerWrapper> wrappedMods;
-    private List<ASMModParserV2> asmDataCollection = new ArrayList<>();
+    private List<AnnotatedClass> annotatedClasses = new ArrayList<>();
+    private List<ClassHeader> classHeaders = new ArrayList<>();
 
     private List<JarUtil.NestedJar> nestedJars = null;
 
@@ -122,9 +126,20 @@ public class ModCandidateV2 extends ModCandidate implements SortableCandidate {
         return nestLevel > 0;
     }
 
+    /**
+     * Same as ModCandidate#addClassEntry, with the package name taken from the {@link NamePool} since it's shared by every class in the package.
+     */
     @Override
     public void addClassEntry(String name) {
-        super.addClassEntry(name);
+        final String className = name.substring(0, name.lastIndexOf('.'));
+        foundClasses.add(className);
+        final String dottedName = className.replace('/', '.');
+        final int pkgIdx = dottedName.lastIndexOf('.');
+        if (pkgIdx > -1) {
+            final String pkg = NamePool.name(dottedName.substring(0, pkgIdx));
+            packages.add(pkg);
+            this.table.registerPackage(this, pkg);
+        }
     }
 
     public void setNestedModcandidates(List<ModCandidateV2> nestedModcandidates) {
@@ -157,8 +172,12 @@ public class ModCandidateV2 extends ModCandidate implements SortableCandidate {
         return modContainer.getName();
     }
 
-    public List<ASMModParserV2> getAsmDataCollection() {
-        return asmDataCollection;
+    public List<AnnotatedClass> getAnnotatedClasses() {
+        return annotatedClasses;
+    }
+
+    public List<ClassHeader> getClassHeaders() {
+        return classHeaders;
     }
 
     private void updateNestLevel(ModCandidateV2 parent) {
@@ -243,19 +262,45 @@ public class ModCandidateV2 extends ModCandidate implements SortableCandidate {
         this.table = table;
     }
 
+    public boolean isSentToTable() {
+        return sentToTable;
+    }
+
     public void sendToTable(ASMDataTable table) {
         setTable(table);
-        for (ASMModParserV2 asmData : asmDataCollection) {
-            addClassEntry(asmData.getClassEntry());
-            asmData.sendToTable(table, this);
+        sentToTable = true;
+        for (AnnotatedClass annotatedClass : annotatedClasses) {
+            addClassEntry(annotatedClass.getClassEntry());
+            annotatedClass.sendAnnotationsToTable(table, this);
+            sendHeaderToTable(table, annotatedClass.getHeader());
+        }
+        for (ClassHeader header : classHeaders) {
+            addClassEntry(header.getClassEntry());
+            sendHeaderToTable(table, header);
+        }
+    }
+
+    private void sendHeaderToTable(ASMDataTable table, ClassHeader header) {
+        if (table instanceof ClassSink classes) {
+            classes.addClass(this, header);
+        } else {
+            header.sendToTable(table, this);
         }
     }
 
     public void releaseParsedData() {
-        this.asmDataCollection = Collections.emptyList();
+        releaseClasses();
         this.metadataCollection = null;
     }
 
+    /**
+     * Drops the scanned classes once they are in the table, the metadata is still needed until mods are identified.
+     */
+    public void releaseClasses() {
+        this.annotatedClasses = Collections.emptyList();
+        this.classHeaders = Collections.emptyList();
+    }
+
     public void releaseAccessTransformers() {
         this.accessTransformers = null;
     }
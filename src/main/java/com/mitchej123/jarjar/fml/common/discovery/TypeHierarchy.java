@@ -0,0 +1,158 @@
+package com.mitchej123.jarjar.fml.common.discovery;
+
+import com.google.common.collect.ImmutableSet;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Super class and interfaces of the classes in an {@link ASMDataTableV2}, kept as their {@link ClassHeader}s with the id of the candidate they
+ * come from.
+ * <p>
+ * Replaces the one ASMData per implemented interface FML's table holds, the table builds those entries from here when asked. Classes directly
+ * extending {@code java/lang/Object} without interfaces aren't kept, they're no one's subtype.
+ */
+final class TypeHierarchy {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private int[] candidateColumn = new int[INITIAL_CAPACITY];
+    private ClassHeader[] classColumn = new ClassHeader[INITIAL_CAPACITY];
+    private final Map<String, ASMDataTableV2.RowList> implementorsByInterface = new HashMap<>();
+
+    // built on the first subtype query, dropped when classes change
+    private Map<String, ASMDataTableV2.RowList> directSubtypes;
+    private final Map<String, Set<String>> subtypes = new HashMap<>();
+
+    void add(int candidate, ClassHeader header) {
+        if (header.getInterfaces().length == 0 && "java/lang/Object".equals(header.getSuperName())) return;
+        if (size == classColumn.length) {
+            final int capacity = size + (size >> 1);
+            candidateColumn = Arrays.copyOf(candidateColumn, capacity);
+            classColumn = Arrays.copyOf(classColumn, capacity);
+        }
+        final int row = size++;
+        candidateColumn[row] = candidate;
+        classColumn[row] = header;
+        for (String intf : header.getInterfaces()) {
+            implementorsByInterface.computeIfAbsent(intf, k -> new ASMDataTableV2.RowList()).add(row);
+        }
+        invalidate();
+    }
+
+    int size() {
+        return size;
+    }
+
+    int candidate(int row) {
+        return candidateColumn[row];
+    }
+
+    ClassHeader header(int row) {
+        return classColumn[row];
+    }
+
+    /**
+     * @return the rows of the classes directly implementing an interface, by internal name, or null if there are none
+     */
+    ASMDataTableV2.RowList implementors(String intf) {
+        return implementorsByInterface.get(intf);
+    }
+
+    /**
+     * Drops the classes of candidates mapped to -1 by newIds and orders the others by their new candidate id, see
+     * {@link ASMDataTableV2#retainCandidates}.
+     *
+     * @return where each old row went, -1 for dropped ones
+     */
+    int[] retain(int[] newIds, int candidateCount) {
+        final int[] starts = new int[candidateCount + 1];
+        for (int row = 0; row < size; row++) {
+            final int newId = newIds[candidateColumn[row]];
+            if (newId >= 0) starts[newId + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        final int newSize = starts[candidateCount];
+        final int[] newCandidateColumn = new int[newSize];
+        final ClassHeader[] newClassColumn = new ClassHeader[newSize];
+        final int[] moved = new int[size];
+        for (int row = 0; row < size; row++) {
+            final int newId = newIds[candidateColumn[row]];
+            if (newId < 0) {
+                moved[row] = -1;
+                continue;
+            }
+            final int newRow = starts[newId]++;
+            newCandidateColumn[newRow] = newId;
+            newClassColumn[newRow] = classColumn[row];
+            moved[row] = newRow;
+        }
+        size = newSize;
+        candidateColumn = newCandidateColumn;
+        classColumn = newClassColumn;
+
+        implementorsByInterface.clear();
+        for (int row = 0; row < size; row++) {
+            for (String intf : classColumn[row].getInterfaces()) {
+                implementorsByInterface.computeIfAbsent(intf, k -> new ASMDataTableV2.RowList()).add(row);
+            }
+        }
+        invalidate();
+        return moved;
+    }
+
+    /**
+     * @return the binary names of every class extending or implementing type, by internal name, directly or through other classes
+     */
+    Set<String> subtypes(String type) {
+        final Set<String> cached = subtypes.get(type);
+        if (cached != null) return cached;
+
+        if (directSubtypes == null) {
+            directSubtypes = new HashMap<>();
+            for (int row = 0; row < size; row++) {
+                final ClassHeader header = classColumn[row];
+                if (header.getSuperName() != null) {
+                    directSubtypes.computeIfAbsent(header.getSuperName(), k -> new ASMDataTableV2.RowList()).add(row);
+                }
+                for (String intf : header.getInterfaces()) {
+                    directSubtypes.computeIfAbsent(intf, k -> new ASMDataTableV2.RowList()).add(row);
+                }
+            }
+        }
+        final ImmutableSet.Builder<String> result = ImmutableSet.builder();
+        final BitSet visited = new BitSet(size);
+        final Queue<String> pending = new ArrayDeque<>();
+        pending.add(type);
+        String current;
+        while ((current = pending.poll()) != null) {
+            final ASMDataTableV2.RowList rows = directSubtypes.get(current);
+            if (rows == null) continue;
+            for (int i = 0; i < rows.size; i++) {
+                final int row = rows.rows[i];
+                if (visited.get(row)) continue;
+                visited.set(row);
+                final String name = classColumn[row].getName();
+                result.add(name.replace('/', '.'));
+                pending.add(name);
+            }
+        }
+        final Set<String> built = result.build();
+        subtypes.put(type, built);
+        return built;
+    }
+
+    private void invalidate() {
+        if (directSubtypes != null) directSubtypes = null;
+        if (!subtypes.isEmpty()) subtypes.clear();
+    }
+}
@@ -20,28 +20,21 @@
 package com.mitchej123.jarjar.fml.common.discovery.asm;
 
 import com.google.common.collect.Sets;
-import com.gtnewhorizon.gtnhlib.asm.ClassConstantPoolParser;
-import com.gtnewhorizons.retrofuturabootstrap.api.ClassHeaderMetadata;
+import com.mitchej123.jarjar.util.NamePool;
 import cpw.mods.fml.common.discovery.ASMDataTable;
 import cpw.mods.fml.common.discovery.ModCandidate;
 import cpw.mods.fml.common.discovery.asm.ASMModParser;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Opcodes;
+import cpw.mods.fml.common.discovery.asm.ModAnnotation;
 import org.spongepowered.libraries.com.google.common.base.MoreObjects;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 
 public class ASMModParserV2 extends ASMModParser {
 
-    private static final ClassConstantPoolParser PRESCAN = new ClassConstantPoolParser("RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations");
-    private static final String DUMMY_MARKER_INTERNAL_NAME = "$JarJarDummy";
-    private static final byte[] DUMMY_CLASS_BYTES = buildDummyClassBytes();
-
     private final String classEntry;
     private Set<String> interfaces;
 
@@ -52,25 +45,24 @@ public class ASMModParserV2 extends ASMModParser {
     }
 
     public ASMModParserV2(byte[] classBytes, String classEntry) throws IOException {
-        super(new ByteArrayInputStream(PRESCAN.find(classBytes, false) ? classBytes : DUMMY_CLASS_BYTES));
-        this.classEntry = classEntry;
-        if (DUMMY_MARKER_INTERNAL_NAME.equals(getASMType().getInternalName())) {
-            try {
-                final ClassHeaderMetadata header = new ClassHeaderMetadata(classBytes);
-                final List<String> ifaceNames = header.binaryInterfaceNames;
-                beginNewTypeName(
-                    header.binaryThisName,
-                    header.majorVersion,
-                    header.binarySuperName,
-                    ifaceNames.toArray(new String[0]));
-            } catch (IllegalArgumentException ignored) {}
-        }
+        this(classBytes, classBytes.length, classEntry);
+    }
+
+    /**
+     * Parses the class held in the first length bytes of classBytes, the array isn't kept so it can be reused afterwards.
+     */
+    public ASMModParserV2(byte[] classBytes, int length, String classEntry) throws IOException {
+        this(new ByteArrayInputStream(classBytes, 0, length), classEntry);
     }
 
     public String getClassEntry() {
         return classEntry;
     }
 
+    public Set<String> getInterfaces() {
+        return interfaces == null ? Collections.emptySet() : interfaces;
+    }
+
 
     public void beginNewTypeName(String typeQName, int classVersion, String superClassQName, String[] interfaces) {
         super.beginNewTypeName(typeQName, classVersion, superClassQName);
@@ -90,20 +82,22 @@ public class ASMModParserV2 extends ASMModParser {
     }
 
 
+    /**
+     * Same entries as ASMModParser#sendToTable plus the interfaces, with annotation and interface names taken from the {@link NamePool}.
+     */
     @Override
     public void sendToTable(ASMDataTable table, ModCandidate candidate) {
-        super.sendToTable(table, candidate);
+        final String className = getASMType().getClassName();
+        for (ModAnnotation annotation : getAnnotations()) {
+            final String annotationName = NamePool.name(annotation.getASMType().getClassName());
+            table.addASMData(candidate, annotationName, className, annotation.getMember(), annotation.getValues());
+        }
 
         if (interfaces == null) return;
+        final String internalName = getASMType().getInternalName();
         for (String intf : interfaces) {
-            table.addASMData(candidate, intf, getASMType().getInternalName(), null, null);
+            table.addASMData(candidate, NamePool.name(intf), internalName, null, null);
         }
     }
 
-    private static byte[] buildDummyClassBytes() {
-        final ClassWriter cw = new ClassWriter(0);
-        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, DUMMY_MARKER_INTERNAL_NAME, null, "java/lang/Object", null);
-        cw.visitEnd();
-        return cw.toByteArray();
-    }
 }
@@ -0,0 +1,104 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.github.bsideup.jabel.Desugar;
+import com.mitchej123.jarjar.util.NamePool;
+import cpw.mods.fml.common.discovery.ASMDataTable;
+import cpw.mods.fml.common.discovery.ModCandidate;
+import cpw.mods.fml.common.discovery.asm.ModAnnotation;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What discovery keeps of a class carrying annotations: its {@link ClassHeader} and the annotations in the order {@link ASMModParserV2} would send
+ * them to the ASMDataTable.
+ */
+public final class AnnotatedClass {
+
+    /**
+     * One ASMData entry: the annotation type, the annotated member as FML names it (class name, field name or method name + descriptor, null for
+     * nested annotations) and the annotation values, which are only decoded when first accessed.
+     */
+    @Desugar public record Annotation(Type type, @Nullable String member, Map<String, Object> values) {
+    }
+
+    private final ClassHeader header;
+    private final List<Annotation> annotations;
+
+    AnnotatedClass(ClassHeader header, List<Annotation> annotations) {
+        this.header = header;
+        this.annotations = annotations;
+    }
+
+    /**
+     * Reads the class held in the first length bytes of classBytes, falling back to {@link ASMModParserV2} for anything
+     * {@link AnnotationExtractor} doesn't understand.
+     *
+     * @throws cpw.mods.fml.common.LoaderException if the class can't be parsed at all
+     */
+    public static AnnotatedClass read(byte[] classBytes, int length, String classEntry) throws IOException {
+        final AnnotatedClass annotatedClass = AnnotationExtractor.read(classBytes, length, classEntry);
+        return annotatedClass != null ? annotatedClass : of(new ASMModParserV2(classBytes, length, classEntry));
+    }
+
+    private static AnnotatedClass of(ASMModParserV2 parser) {
+        final List<Annotation> annotations = new ArrayList<>(parser.getAnnotations().size());
+        for (ModAnnotation annotation : parser.getAnnotations()) {
+            annotations.add(new Annotation(annotation.getASMType(), annotation.getMember(), annotation.getValues()));
+        }
+        final Type superType = parser.getASMSuperType();
+        final ClassHeader header = new ClassHeader(
+            parser.getClassEntry(),
+            parser.getASMType().getInternalName(),
+            parser.getClassVersion(),
+            superType != null ? superType.getInternalName() : null,
+            parser.getInterfaces().toArray(new String[0]));
+        return new AnnotatedClass(header, annotations);
+    }
+
+    public ClassHeader getHeader() {
+        return header;
+    }
+
+    public String getClassEntry() {
+        return header.getClassEntry();
+    }
+
+    /**
+     * @return the binary class name, with dots
+     */
+    public String getClassName() {
+        return header.getName().replace('/', '.');
+    }
+
+    public List<Annotation> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Same entries as {@link ASMModParserV2#sendToTable(ASMDataTable, ModCandidate)}.
+     */
+    public void sendToTable(ASMDataTable table, ModCandidate candidate) {
+        sendAnnotationsToTable(table, candidate);
+        header.sendToTable(table, candidate);
+    }
+
+    /**
+     * Sends the annotation entries only, for tables taking the {@link ClassHeader} on its own.
+     */
+    public void sendAnnotationsToTable(ASMDataTable table, ModCandidate candidate) {
+        final String className = getClassName();
+        for (Annotation annotation : annotations) {
+            table.addASMData(candidate, NamePool.name(annotation.type().getClassName()), className, annotation.member(), annotation.values());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotatedClass{" + header.getName() + ", " + annotations + '}';
+    }
+}
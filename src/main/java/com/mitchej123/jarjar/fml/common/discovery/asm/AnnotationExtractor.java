@@ -0,0 +1,467 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.util.NamePool;
+import cpw.mods.fml.common.discovery.asm.ASMModParser;
+import cpw.mods.fml.common.discovery.asm.ModAnnotation;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the class, field and method annotations of a class file straight from its attribute tables, without a {@code ClassReader}, visitors or
+ * {@link ModAnnotation}s.
+ * <p>
+ * The result matches what {@link ASMModParser} collects, including its quirks: runtime visible and invisible annotations are both read, nested
+ * annotations only end up in their parent's values when they are array elements and always get an entry of their own, and enum values inside arrays
+ * are stored under a null key instead of in the array.
+ * <p>
+ * Only the annotation types and members are read up front. The values are decoded by {@link LazyAnnotationValues} when first accessed, from a copy
+ * of the constant pool and annotation attributes, since the scan buffer is reused for the next class.
+ */
+final class AnnotationExtractor {
+
+    private static final Logger LOGGER = LogManager.getLogger("AnnotationExtractor");
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations".getBytes(StandardCharsets.UTF_8);
+    // EnumHolder is an inner class of ModAnnotation, it needs an instance to be created from
+    private static final ModAnnotation ENUM_HOLDER_OWNER = new ModAnnotation(ASMModParser.AnnotationType.SUBTYPE, Type.getType(Object.class), (String) null);
+
+    private static final MalformedClassException MALFORMED = new MalformedClassException();
+
+    // set when decoding values for LazyAnnotationValues, possibly after discovery, where nested annotations must not add entries or use the NamePool
+    private final boolean decoding;
+    private final byte[] bytes;
+    private final int end;
+    private final int[] pool;
+    private int pos;
+    // annotation attributes to keep for LazyAnnotationValues, as {offset, length}, and the size of the retained bytes
+    private final List<int[]> retainedAttributes = new ArrayList<>();
+    private int retainedLength;
+    // Same order ASMModParser keeps its annotations in: new ones are added first, nested ones move to the end once read
+    private final Deque<PendingAnnotation> annotations = new ArrayDeque<>();
+
+    private AnnotationExtractor(byte[] bytes, int end, int[] pool, boolean decoding) {
+        this.decoding = decoding;
+        this.bytes = bytes;
+        this.end = end;
+        this.pool = pool;
+        this.retainedLength = pool[0];
+    }
+
+    /**
+     * @return the class held in the first length bytes of classBytes, or null if it can't be read here
+     */
+    static @Nullable AnnotatedClass read(byte[] classBytes, int length, String classEntry) {
+        final int[] pool = ConstantPool.offsets(classBytes, 0, length);
+        if (pool == null) return null;
+        final ClassHeader header = ClassHeader.read(classBytes, 0, length, pool, classEntry);
+        if (header == null) return null;
+        try {
+            final AnnotationExtractor extractor = new AnnotationExtractor(classBytes, length, pool, false);
+            extractor.readClass(header, pool[0] + 8 + header.getInterfaces().length * 2);
+            return new AnnotatedClass(header, extractor.finish());
+        } catch (MalformedClassException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private void readClass(ClassHeader header, int membersStart) {
+        pos = membersStart;
+        final int fieldsStart = pos;
+        skipMembers();
+        final int methodsStart = pos;
+        skipMembers();
+
+        // ClassReader visits class annotations before fields and methods, even though they're stored last
+        readAnnotationAttributes(header.getName().replace('/', '.'), null, false);
+
+        pos = fieldsStart;
+        for (int count = u2(); count > 0; count--) {
+            pos += 2;
+            final String name = utf8(u2());
+            pos += 2;
+            readAnnotationAttributes(name, null, true);
+        }
+
+        pos = methodsStart;
+        for (int count = u2(); count > 0; count--) {
+            pos += 2;
+            final String name = utf8(u2());
+            final String descriptor = utf8(u2());
+            readAnnotationAttributes(name, descriptor, true);
+        }
+    }
+
+    private void skipMembers() {
+        for (int count = u2(); count > 0; count--) {
+            pos += 6;
+            skipAttributes();
+        }
+    }
+
+    private void skipAttributes() {
+        for (int count = u2(); count > 0; count--) {
+            pos += 2;
+            final int length = u4();
+            pos += length;
+            if (pos > end || pos < 0) throw MALFORMED;
+        }
+    }
+
+    /**
+     * Reads the attribute table at pos, visible annotations first then invisible ones like ClassReader, and leaves pos after it. Field and method
+     * members go through the {@link NamePool}, the same few (instance, proxy, preInit, ...) are annotated in most mods.
+     */
+    private void readAnnotationAttributes(String member, @Nullable String methodDescriptor, boolean pooled) {
+        int visible = -1;
+        int visibleLength = 0;
+        int invisible = -1;
+        int invisibleLength = 0;
+        for (int count = u2(); count > 0; count--) {
+            final int nameIndex = u2();
+            final int length = u4();
+            if (isUtf8(nameIndex, RUNTIME_VISIBLE_ANNOTATIONS)) {
+                visible = pos;
+                visibleLength = length;
+            } else if (isUtf8(nameIndex, RUNTIME_INVISIBLE_ANNOTATIONS)) {
+                invisible = pos;
+                invisibleLength = length;
+            }
+            pos += length;
+            if (pos > end || pos < 0) throw MALFORMED;
+        }
+        if (visible < 0 && invisible < 0) return;
+        final int next = pos;
+        final String fmlMember = pooled ? NamePool.name(methodDescriptor != null ? member + methodDescriptor : member) : member;
+        if (visible >= 0) readAnnotations(visible, visibleLength, fmlMember);
+        if (invisible >= 0) readAnnotations(invisible, invisibleLength, fmlMember);
+        pos = next;
+    }
+
+    private void readAnnotations(int offset, int length, String member) {
+        // the attribute is copied right after the retained constant pool, the values are decoded from there
+        final int shift = retainedLength - offset;
+        retainedAttributes.add(new int[] { offset, length });
+        retainedLength += length;
+
+        pos = offset;
+        for (int count = u2(); count > 0; count--) {
+            annotations.addFirst(new PendingAnnotation(NamePool.type(utf8(u2())), member, pos + shift));
+            skipElementValues(u2(), true, shift);
+        }
+    }
+
+    /**
+     * Walks element values without decoding them, checking the constants they use so {@link #readValues} can't fail later on, and adds an entry for
+     * every nested annotation.
+     */
+    private void skipElementValues(int count, boolean named, int shift) {
+        for (; count > 0; count--) {
+            if (named) utf8Entry(u2());
+            skipElementValue(shift);
+        }
+    }
+
+    private void skipElementValue(int shift) {
+        final int tag = u1();
+        switch (tag) {
+            case 'B', 'C', 'S', 'Z' -> intConstant(u2());
+            case 'I', 'J', 'F', 'D' -> {
+                final int offset = checkedEntry(u2());
+                if (bytes[offset] < 3 || bytes[offset] > 6) throw MALFORMED;
+            }
+            case 's' -> utf8Entry(u2());
+            case 'e' -> {
+                utf8Entry(u2());
+                utf8Entry(u2());
+            }
+            case 'c' -> type(utf8(u2()));
+            case '@' -> {
+                final String descriptor = utf8(u2());
+                if (decoding) {
+                    type(descriptor);
+                    skipElementValues(u2(), true, shift);
+                } else {
+                    annotations.addFirst(new PendingAnnotation(NamePool.type(descriptor), null, pos + shift));
+                    skipElementValues(u2(), true, shift);
+                    annotations.addLast(annotations.removeFirst());
+                }
+            }
+            case '[' -> {
+                final int size = u2();
+                if (size > 0 && isPrimitive(bytes[checked(pos)])) {
+                    readPrimitiveArray(bytes[pos], size);
+                } else {
+                    for (int i = 0; i < size; i++) skipElementValue(shift);
+                }
+            }
+            default -> throw MALFORMED;
+        }
+    }
+
+    /**
+     * Decodes the element values at offset in a class retained by {@link #read}.
+     */
+    static Map<String, Object> readValues(byte[] bytes, int[] pool, int offset) {
+        final AnnotationExtractor extractor = new AnnotationExtractor(bytes, bytes.length, pool, true);
+        extractor.pos = offset;
+        final Values values = new Values();
+        try {
+            extractor.readElementValues(values, extractor.u2(), true);
+        } catch (MalformedClassException | IndexOutOfBoundsException e) {
+            LOGGER.warn("Unable to decode annotation values at offset {}", offset);
+        }
+        return values.values;
+    }
+
+    private void readElementValues(Values owner, int count, boolean named) {
+        for (; count > 0; count--) {
+            readElementValue(owner, named ? utf8(u2()) : null);
+        }
+    }
+
+    /**
+     * Decodes a value the way ClassReader hands it to FML's ModAnnotationVisitor, with the same boxing.
+     */
+    private void readElementValue(Values owner, @Nullable String name) {
+        final int tag = u1();
+        switch (tag) {
+            case 'B' -> owner.add(name, (byte) intConstant(u2()));
+            case 'C' -> owner.add(name, (char) intConstant(u2()));
+            case 'S' -> owner.add(name, (short) intConstant(u2()));
+            case 'Z' -> owner.add(name, intConstant(u2()) == 0 ? Boolean.FALSE : Boolean.TRUE);
+            case 'I', 'J', 'F', 'D' -> owner.add(name, constant(u2()));
+            case 's' -> owner.add(name, utf8(u2()));
+            case 'e' -> {
+                final String descriptor = utf8(u2());
+                final String value = utf8(u2());
+                // ModAnnotation.addEnumProperty ignores arrays
+                owner.values.put(name, ENUM_HOLDER_OWNER.new EnumHolder(descriptor, value));
+            }
+            case 'c' -> owner.add(name, type(utf8(u2())));
+            case '@' -> {
+                pos += 2;
+                if (owner.array != null) {
+                    final Values child = new Values();
+                    owner.array.add(child.values);
+                    readElementValues(child, u2(), true);
+                } else {
+                    // nested annotations outside arrays only show up as their own entry
+                    skipElementValues(u2(), true, 0);
+                }
+            }
+            case '[' -> {
+                final int size = u2();
+                if (size > 0 && isPrimitive(bytes[checked(pos)])) {
+                    owner.add(name, readPrimitiveArray(bytes[pos], size));
+                } else {
+                    owner.array = new ArrayList<>(size);
+                    owner.arrayName = name;
+                    readElementValues(owner, size, false);
+                    owner.values.put(owner.arrayName, owner.array);
+                    owner.array = null;
+                }
+            }
+            default -> throw MALFORMED;
+        }
+    }
+
+    private static boolean isPrimitive(byte tag) {
+        return switch (tag) {
+            case 'B', 'Z', 'S', 'C', 'I', 'J', 'F', 'D' -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * ClassReader turns arrays of primitives into a single primitive array value, going by the tag of the first element.
+     */
+    private Object readPrimitiveArray(byte tag, int size) {
+        switch (tag) {
+            case 'B' -> {
+                final byte[] values = new byte[size];
+                for (int i = 0; i < size; i++) values[i] = (byte) intConstant(arrayElement());
+                return values;
+            }
+            case 'Z' -> {
+                final boolean[] values = new boolean[size];
+                for (int i = 0; i < size; i++) values[i] = intConstant(arrayElement()) != 0;
+                return values;
+            }
+            case 'S' -> {
+                final short[] values = new short[size];
+                for (int i = 0; i < size; i++) values[i] = (short) intConstant(arrayElement());
+                return values;
+            }
+            case 'C' -> {
+                final char[] values = new char[size];
+                for (int i = 0; i < size; i++) values[i] = (char) intConstant(arrayElement());
+                return values;
+            }
+            case 'I' -> {
+                final int[] values = new int[size];
+                for (int i = 0; i < size; i++) values[i] = intConstant(arrayElement());
+                return values;
+            }
+            case 'J' -> {
+                final long[] values = new long[size];
+                for (int i = 0; i < size; i++) values[i] = longConstant(arrayElement());
+                return values;
+            }
+            case 'F' -> {
+                final float[] values = new float[size];
+                for (int i = 0; i < size; i++) values[i] = Float.intBitsToFloat(intConstant(arrayElement()));
+                return values;
+            }
+            default -> {
+                final double[] values = new double[size];
+                for (int i = 0; i < size; i++) values[i] = Double.longBitsToDouble(longConstant(arrayElement()));
+                return values;
+            }
+        }
+    }
+
+    /**
+     * @return the constant index of the next array element, skipping its tag
+     */
+    private int arrayElement() {
+        pos++;
+        return u2();
+    }
+
+    private List<AnnotatedClass.Annotation> finish() {
+        if (annotations.isEmpty()) return Collections.emptyList();
+        final byte[] retained = Arrays.copyOf(bytes, retainedLength);
+        int next = pool[0];
+        for (int[] attribute : retainedAttributes) {
+            System.arraycopy(bytes, attribute[0], retained, next, attribute[1]);
+            next += attribute[1];
+        }
+        final LazyAnnotationValues.Source source = new LazyAnnotationValues.Source(retained);
+        final List<AnnotatedClass.Annotation> result = new ArrayList<>(annotations.size());
+        for (PendingAnnotation annotation : annotations) {
+            result.add(new AnnotatedClass.Annotation(annotation.type, annotation.member, new LazyAnnotationValues(source, annotation.valuesOffset)));
+        }
+        return result;
+    }
+
+    private Object constant(int index) {
+        final int offset = checkedEntry(index);
+        return switch (bytes[offset]) {
+            case 3 -> ConstantPool.readInt(bytes, offset + 1);
+            case 4 -> Float.intBitsToFloat(ConstantPool.readInt(bytes, offset + 1));
+            case 5 -> ConstantPool.readLong(bytes, offset + 1);
+            case 6 -> Double.longBitsToDouble(ConstantPool.readLong(bytes, offset + 1));
+            default -> throw MALFORMED;
+        };
+    }
+
+    private int intConstant(int index) {
+        final int offset = checkedEntry(index);
+        if (bytes[offset] != 3 && bytes[offset] != 4) throw MALFORMED;
+        return ConstantPool.readInt(bytes, offset + 1);
+    }
+
+    private long longConstant(int index) {
+        final int offset = checkedEntry(index);
+        if (bytes[offset] != 5 && bytes[offset] != 6) throw MALFORMED;
+        return ConstantPool.readLong(bytes, offset + 1);
+    }
+
+    private int checkedEntry(int index) {
+        if (index <= 0 || index >= pool.length || pool[index] == 0) throw MALFORMED;
+        return pool[index];
+    }
+
+    private boolean isUtf8(int index, byte[] expected) {
+        final int offset = ConstantPool.entry(bytes, pool, index, ConstantPool.UTF8);
+        if (offset < 0 || ConstantPool.readUnsignedShort(bytes, offset + 1) != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[offset + 3 + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private void utf8Entry(int index) {
+        if (ConstantPool.entry(bytes, pool, index, ConstantPool.UTF8) < 0) throw MALFORMED;
+    }
+
+    private String utf8(int index) {
+        final String value = ConstantPool.utf8(bytes, pool, index, end);
+        if (value == null) throw MALFORMED;
+        return value;
+    }
+
+    private static Type type(String descriptor) {
+        if (descriptor.isEmpty()) throw MALFORMED;
+        return Type.getType(descriptor);
+    }
+
+    private int checked(int offset) {
+        if (offset >= end) throw MALFORMED;
+        return offset;
+    }
+
+    private int u1() {
+        return bytes[checked(pos++)] & 0xFF;
+    }
+
+    private int u2() {
+        checked(pos + 1);
+        final int value = ConstantPool.readUnsignedShort(bytes, pos);
+        pos += 2;
+        return value;
+    }
+
+    private int u4() {
+        checked(pos + 3);
+        final int value = ConstantPool.readInt(bytes, pos);
+        pos += 4;
+        if (value < 0) throw MALFORMED;
+        return value;
+    }
+
+    private static final class PendingAnnotation {
+        final Type type;
+        final @Nullable String member;
+        // offset of the element values in the retained bytes
+        final int valuesOffset;
+
+        PendingAnnotation(Type type, @Nullable String member, int valuesOffset) {
+            this.type = type;
+            this.member = member;
+            this.valuesOffset = valuesOffset;
+        }
+    }
+
+    private static final class Values {
+        final Map<String, Object> values = new HashMap<>();
+        @Nullable List<Object> array;
+        @Nullable String arrayName;
+
+        void add(@Nullable String name, Object value) {
+            if (array != null) {
+                array.add(value);
+            } else {
+                values.put(name, value);
+            }
+        }
+    }
+
+    private static final class MalformedClassException extends RuntimeException {
+        MalformedClassException() {
+            super(null, null, false, false);
+        }
+    }
+}
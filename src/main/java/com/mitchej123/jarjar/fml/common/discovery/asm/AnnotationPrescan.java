@@ -0,0 +1,199 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.gtnewhorizon.gtnhlib.asm.ClassConstantPoolParser;
+import com.mitchej123.jarjar.Config;
+import com.mitchej123.jarjar.fml.common.ModContainerFactoryV2;
+import net.minecraft.launchwrapper.Launch;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Type;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the annotations discovery has to fully parse classes for.
+ * <p>
+ * With {@code targetedAnnotationScan} enabled, only classes whose constant pool references one of these descriptors have their annotations read;
+ * everything else, including classes carrying unrelated annotations (Kotlin metadata, nullability, ...), is kept as a {@link ClassHeader}. Any
+ * annotation missing here won't show up in the ASMDataTable, so mods looking up their own annotations there must list them in
+ * {@code scannedAnnotations} or {@link #register(String)} them from a coremod or tweaker before mod discovery.
+ */
+public final class AnnotationPrescan {
+
+    private static final Logger LOGGER = LogManager.getLogger("AnnotationPrescan");
+    private static final ClassConstantPoolParser ANY_ANNOTATION = new ClassConstantPoolParser("RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations");
+    public static final String BLACKBOARD_KEY = "jarjar.scannedAnnotations";
+
+    private static final List<String> DEFAULT_ANNOTATIONS = Arrays.asList(
+        "cpw.mods.fml.common.Mod",
+        "cpw.mods.fml.common.Mod$Instance",
+        "cpw.mods.fml.common.Mod$Metadata",
+        "cpw.mods.fml.common.SidedProxy",
+        "cpw.mods.fml.common.API",
+        // read by ModAPITransformer to strip interfaces and methods of absent mods
+        "cpw.mods.fml.common.Optional$Interface",
+        "cpw.mods.fml.common.Optional$InterfaceList",
+        "cpw.mods.fml.common.Optional$Method",
+        "cpw.mods.fml.common.registry.GameRegistry$ObjectHolder",
+        "com.gtnewhorizon.gtnhlib.eventbus.EventBusSubscriber");
+
+    private static volatile AnnotationPrescan instance;
+
+    // descriptors grouped by their UTF-8 length, null where no descriptor has that length
+    private final byte[][][] descriptorsByLength;
+    private final String fingerprint;
+
+    AnnotationPrescan(Set<String> descriptors) {
+        int maxLength = 0;
+        final List<byte[]> encoded = new ArrayList<>(descriptors.size());
+        for (String descriptor : descriptors) {
+            final byte[] bytes = descriptor.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            maxLength = Math.max(maxLength, bytes.length);
+        }
+        this.descriptorsByLength = new byte[maxLength + 1][][];
+        for (byte[] bytes : encoded) {
+            final byte[][] sameLength = descriptorsByLength[bytes.length];
+            descriptorsByLength[bytes.length] = sameLength == null ? new byte[][] { bytes } : append(sameLength, bytes);
+        }
+        this.fingerprint = DigestUtils.sha1Hex(String.join("\n", descriptors));
+    }
+
+    /**
+     * @return true if the class has to go through {@link AnnotatedClass#read}, the others only need a {@link ClassHeader}. Only the constant pool is
+     * looked at, so classBytes may be longer than the class.
+     */
+    public static boolean needsFullParse(byte[] classBytes, int length) {
+        final AnnotationPrescan prescan = get();
+        return prescan != null ? prescan.matches(classBytes, 0, length) : ANY_ANNOTATION.find(classBytes, false);
+    }
+
+    /**
+     * Adds an annotation, by class name as used with ASMDataTable#getAll, to the set discovery scans for. Registrations go through
+     * {@link Launch#blackboard}, so call from the main thread before mod discovery starts.
+     */
+    @SuppressWarnings("unchecked")
+    public static void register(String annotationClassName) {
+        if (instance != null) {
+            LOGGER.warn("Annotation {} registered after mod discovery started, it won't be scanned for", annotationClassName);
+        }
+        ((Set<String>) Launch.blackboard.computeIfAbsent(BLACKBOARD_KEY, k -> ConcurrentHashMap.newKeySet())).add(annotationClassName);
+    }
+
+    /**
+     * @return the prescan to use, or null if every annotated class is fully parsed. The annotation set is fixed on the first call, make it from the
+     * main thread before discovery workers start.
+     */
+    public static @Nullable AnnotationPrescan get() {
+        if (!Config.targetedAnnotationScan) return null;
+        AnnotationPrescan prescan = instance;
+        if (prescan == null) {
+            synchronized (AnnotationPrescan.class) {
+                prescan = instance;
+                if (prescan == null) {
+                    prescan = new AnnotationPrescan(collectDescriptors());
+                    instance = prescan;
+                }
+            }
+        }
+        return prescan;
+    }
+
+    /**
+     * @return a string identifying the scanned annotation set, empty when targeted scanning is disabled
+     */
+    public static String fingerprint() {
+        final AnnotationPrescan prescan = get();
+        return prescan != null ? prescan.fingerprint : "";
+    }
+
+    /**
+     * @return the descriptors of the annotations FML and JarJar itself look up, always scanned for
+     */
+    static Set<String> defaultDescriptors() {
+        final Set<String> descriptors = new TreeSet<>();
+        for (String name : DEFAULT_ANNOTATIONS) {
+            descriptors.add(toDescriptor(name));
+        }
+        return descriptors;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> collectDescriptors() {
+        final Set<String> descriptors = defaultDescriptors();
+        for (String name : Config.scannedAnnotations) {
+            descriptors.add(toDescriptor(name));
+        }
+        final Set<String> registered = (Set<String>) Launch.blackboard.get(BLACKBOARD_KEY);
+        if (registered != null) {
+            for (String name : registered) {
+                descriptors.add(toDescriptor(name));
+            }
+        }
+        for (Type modType : ModContainerFactoryV2.getModTypes()) {
+            descriptors.add(modType.getDescriptor());
+        }
+        LOGGER.info("Scanning for {} annotation types", descriptors.size());
+        return Collections.unmodifiableSet(descriptors);
+    }
+
+    private static String toDescriptor(String className) {
+        return "L" + className.trim().replace('.', '/') + ";";
+    }
+
+    /**
+     * @return true if one of the registered annotation descriptors appears in the constant pool of the class; malformed classes match so the full
+     * parser reports them
+     */
+    public boolean matches(byte[] bytes, int offset, int length) {
+        final int end = offset + length;
+        if (length < 10) return true;
+        final int poolCount = readUnsignedShort(bytes, offset + 8);
+        int pos = offset + 10;
+        for (int i = 1; i < poolCount; i++) {
+            if (pos >= end) return true;
+            switch (bytes[pos]) {
+                case 1 -> { // Utf8
+                    if (pos + 3 > end) return true;
+                    final int utfLength = readUnsignedShort(bytes, pos + 1);
+                    if (utfLength < descriptorsByLength.length && descriptorsByLength[utfLength] != null && pos + 3 + utfLength <= end) {
+                        for (byte[] descriptor : descriptorsByLength[utfLength]) {
+                            if (Arrays.equals(bytes, pos + 3, pos + 3 + utfLength, descriptor, 0, utfLength)) return true;
+                        }
+                    }
+                    pos += 3 + utfLength;
+                }
+                case 7, 8, 16, 19, 20 -> pos += 3; // Class, String, MethodType, Module, Package
+                case 15 -> pos += 4; // MethodHandle
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> pos += 5; // Integer, Float, refs, NameAndType, Dynamic, InvokeDynamic
+                case 5, 6 -> { // Long, Double take two slots
+                    pos += 9;
+                    i++;
+                }
+                default -> {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static byte[][] append(byte[][] array, byte[] element) {
+        final byte[][] grown = Arrays.copyOf(array, array.length + 1);
+        grown[array.length] = element;
+        return grown;
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,100 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.util.NamePool;
+import cpw.mods.fml.common.discovery.ASMDataTable;
+import cpw.mods.fml.common.discovery.ModCandidate;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * What discovery keeps of a class without annotations: its name, super class and interfaces.
+ * <p>
+ * Most scanned classes end up here. They are read straight from the constant pool without a {@code ClassReader} or {@link ASMModParserV2}, super
+ * and interface names go through the {@link NamePool} since a handful of them are shared by most classes, and the entry name is only stored when
+ * it isn't simply {@code name + ".class"}.
+ */
+public final class ClassHeader {
+
+    private static final String[] NO_INTERFACES = new String[0];
+
+    private final String name;
+    private final @Nullable String classEntry;
+    private final int classVersion;
+    private final @Nullable String superName;
+    private final String[] interfaces;
+
+    public ClassHeader(String classEntry, String name, int classVersion, @Nullable String superName, String[] interfaces) {
+        this.name = name;
+        this.classEntry = classEntry.length() == name.length() + 6 && classEntry.startsWith(name) && classEntry.endsWith(".class") ? null : classEntry;
+        this.classVersion = classVersion;
+        this.superName = superName != null ? NamePool.name(superName) : null;
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = NamePool.name(interfaces[i]);
+        }
+        this.interfaces = interfaces.length == 0 ? NO_INTERFACES : interfaces;
+    }
+
+    /**
+     * Reads the header of a class file.
+     *
+     * @return the header, or null if the bytes aren't a well-formed class file header
+     */
+    public static @Nullable ClassHeader read(byte[] bytes, int offset, int length, String classEntry) {
+        final int end = offset + length;
+        final int[] pool = ConstantPool.offsets(bytes, offset, end);
+        return pool != null ? read(bytes, offset, end, pool, classEntry) : null;
+    }
+
+    /**
+     * Reads the header of a class file whose constant pool was already indexed by {@link ConstantPool#offsets}.
+     */
+    static @Nullable ClassHeader read(byte[] bytes, int offset, int end, int[] pool, String classEntry) {
+        final int pos = pool[0];
+        if (pos + 8 > end) return null;
+        final String thisName = ConstantPool.className(bytes, pool, ConstantPool.readUnsignedShort(bytes, pos + 2), end);
+        if (thisName == null) return null;
+        final int superIndex = ConstantPool.readUnsignedShort(bytes, pos + 4);
+        final String superName = superIndex == 0 ? null : ConstantPool.className(bytes, pool, superIndex, end);
+        final int interfaceCount = ConstantPool.readUnsignedShort(bytes, pos + 6);
+        if (pos + 8 + interfaceCount * 2 > end) return null;
+        final String[] interfaces = interfaceCount == 0 ? NO_INTERFACES : new String[interfaceCount];
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces[i] = ConstantPool.className(bytes, pool, ConstantPool.readUnsignedShort(bytes, pos + 8 + i * 2), end);
+            if (interfaces[i] == null) return null;
+        }
+        return new ClassHeader(classEntry, thisName, ConstantPool.readUnsignedShort(bytes, offset + 6), superName, interfaces);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getClassEntry() {
+        return classEntry != null ? classEntry : name + ".class";
+    }
+
+    public int getClassVersion() {
+        return classVersion;
+    }
+
+    public @Nullable String getSuperName() {
+        return superName;
+    }
+
+    public String[] getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * Same as {@link ASMModParserV2#sendToTable(ASMDataTable, ModCandidate)} for a class without annotations: only the interfaces are recorded.
+     */
+    public void sendToTable(ASMDataTable table, ModCandidate candidate) {
+        for (String intf : interfaces) {
+            table.addASMData(candidate, intf, name, null, null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassHeader{" + name + '}';
+    }
+}
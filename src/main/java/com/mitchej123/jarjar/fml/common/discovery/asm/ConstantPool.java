@@ -0,0 +1,111 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class file reading helpers shared by {@link ClassHeader} and {@link AnnotationExtractor}, none of them throw on malformed input, they return
+ * null instead.
+ */
+final class ConstantPool {
+
+    static final int CLASS = 7;
+    static final int UTF8 = 1;
+
+    private ConstantPool() {}
+
+    /**
+     * @return the offset of every constant pool entry by index, with the offset right after the pool at index 0, or null if the class is malformed
+     */
+    static int @Nullable [] offsets(byte[] bytes, int offset, int end) {
+        if (end - offset < 10 || readInt(bytes, offset) != 0xCAFEBABE) return null;
+        final int poolCount = readUnsignedShort(bytes, offset + 8);
+        final int[] offsets = new int[Math.max(1, poolCount)];
+        int pos = offset + 10;
+        for (int i = 1; i < poolCount; i++) {
+            if (pos >= end) return null;
+            offsets[i] = pos;
+            switch (bytes[pos]) {
+                case UTF8 -> {
+                    if (pos + 3 > end) return null;
+                    pos += 3 + readUnsignedShort(bytes, pos + 1);
+                }
+                case CLASS, 8, 16, 19, 20 -> pos += 3; // Class, String, MethodType, Module, Package
+                case 15 -> pos += 4; // MethodHandle
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> pos += 5; // Integer, Float, refs, NameAndType, Dynamic, InvokeDynamic
+                case 5, 6 -> { // Long, Double take two slots
+                    pos += 9;
+                    i++;
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        if (pos > end) return null;
+        offsets[0] = pos;
+        return offsets;
+    }
+
+    /**
+     * @return the offset of the constant pool entry at index if it has the given tag, -1 otherwise
+     */
+    static int entry(byte[] bytes, int[] offsets, int index, int tag) {
+        if (index <= 0 || index >= offsets.length) return -1;
+        final int pos = offsets[index];
+        return pos != 0 && bytes[pos] == tag ? pos : -1;
+    }
+
+    static @Nullable String utf8(byte[] bytes, int[] offsets, int index, int end) {
+        final int pos = entry(bytes, offsets, index, UTF8);
+        if (pos < 0) return null;
+        final int length = readUnsignedShort(bytes, pos + 1);
+        if (pos + 3 + length > end) return null;
+        return decodeUtf8(bytes, pos + 3, length);
+    }
+
+    static @Nullable String className(byte[] bytes, int[] offsets, int index, int end) {
+        final int pos = entry(bytes, offsets, index, CLASS);
+        return pos < 0 ? null : utf8(bytes, offsets, readUnsignedShort(bytes, pos + 1), end);
+    }
+
+    /**
+     * Decodes the modified UTF-8 used by class files.
+     */
+    static @Nullable String decodeUtf8(byte[] bytes, int pos, int length) {
+        final int end = pos + length;
+        int ascii = pos;
+        while (ascii < end && bytes[ascii] >= 0) ascii++;
+        if (ascii == end) return new String(bytes, pos, length, StandardCharsets.ISO_8859_1);
+
+        final char[] chars = new char[length];
+        int count = 0;
+        while (pos < end) {
+            final int b = bytes[pos++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0 && pos < end) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (bytes[pos++] & 0x3F));
+            } else if ((b & 0xF0) == 0xE0 && pos + 1 < end) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((bytes[pos] & 0x3F) << 6) | (bytes[pos + 1] & 0x3F));
+                pos += 2;
+            } else {
+                return null;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    static int readUnsignedShort(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 8) | (bytes[pos + 1] & 0xFF);
+    }
+
+    static int readInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+
+    static long readLong(byte[] bytes, int pos) {
+        return ((long) readInt(bytes, pos) << 32) | (readInt(bytes, pos + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,101 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation values as stored in ASMData#getAnnotationInfo, decoded from the class bytes by {@link AnnotationExtractor} the first time they're
+ * looked at.
+ * <p>
+ * Mods only ever query a few annotation types, so most of these are never decoded. Until then only the offset of the element values is kept,
+ * along with a {@link Source} shared by every annotation of the class, which is released once decoded.
+ */
+final class LazyAnnotationValues extends AbstractMap<String, Object> {
+
+    private @Nullable Source source;
+    private final int offset;
+    private volatile Map<String, Object> values;
+
+    LazyAnnotationValues(Source source, int offset) {
+        this.source = source;
+        this.offset = offset;
+    }
+
+    private Map<String, Object> decoded() {
+        Map<String, Object> decoded = values;
+        if (decoded == null) {
+            synchronized (this) {
+                decoded = values;
+                if (decoded == null) {
+                    decoded = AnnotationExtractor.readValues(source.bytes, source.pool(), offset);
+                    values = decoded;
+                    source = null;
+                }
+            }
+        }
+        return decoded;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return decoded().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded().containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return decoded().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return decoded().remove(key);
+    }
+
+    @Override
+    public int size() {
+        return decoded().size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return decoded().keySet();
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return decoded().values();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return decoded().entrySet();
+    }
+
+    /**
+     * The header and constant pool of a class followed by its annotation attributes, everything else is dropped.
+     */
+    static final class Source {
+        private final byte[] bytes;
+        private int[] pool;
+
+        Source(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private synchronized int[] pool() {
+            if (pool == null) {
+                pool = ConstantPool.offsets(bytes, 0, bytes.length);
+            }
+            return pool;
+        }
+    }
+}
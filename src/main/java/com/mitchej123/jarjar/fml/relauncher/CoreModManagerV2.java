@@ -7,9 +7,11 @@ package com.mitchej123.jarjar.fml.relauncher;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ObjectArrays;
 import com.mitchej123.jarjar.discovery.ModCandidateV2Sorter;
+import com.mitchej123.jarjar.discovery.SharedJarScan;
 import com.mitchej123.jarjar.fml.common.discovery.ModCandidateV2;
 import com.mitchej123.jarjar.util.DiscoveryPool;
 import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.NestedJarStore;
 import cpw.mods.fml.common.asm.transformers.ModAccessTransformer;
 import cpw.mods.fml.common.discovery.ContainerType;
 import cpw.mods.fml.common.launcher.FMLTweaker;
@@ -115,6 +117,7 @@ public final class CoreModManagerV2 extends CoreModManager {
 
         modDir = setupCoreModDir(mcDir);
         nestedDir = setupNestedModDir(mcDir);
+        NestedJarStore.ensureLoaded();
 
         try {
             // Are we in a 'decompiled' environment?
@@ -285,6 +288,8 @@ public final class CoreModManagerV2 extends CoreModManager {
         final List<File> modFilesToExample = new ArrayList<>(Arrays.asList(coreModList));
         final ForkJoinPool pool = DiscoveryPool.get();
         final List<Future<ModCandidateV2>> futures = new ArrayList<>(modFilesToExample.size());
+        // Hand what we read here forward to the mod pass
+        JarUtil.shareScanResults(SharedJarScan.create());
         for (File modFile : modFilesToExample) {
             FMLRelaunchLog.fine("Examining for coremod candidacy %s", modFile.getName());
             futures.add(pool.submit(() -> JarUtil.examineModCandidate(modFile, null, true)));
@@ -311,6 +316,7 @@ public final class CoreModManagerV2 extends CoreModManager {
                 modCandidates.addAll(modCandidate.getNestedModcandidates());
             }
         }
+        JarUtil.shareScanResults(null);
     }
 
     private static void loadTweakersAndCoreMods(File mcDir, LaunchClassLoader classLoader) {
@@ -331,6 +337,7 @@ public final class CoreModManagerV2 extends CoreModManager {
         for (ModCandidateV2 candidate : modCandidates) {
             final File jar = candidate.getModContainer();
             if (jar == null) continue;
+            NestedJarStore.materializePending(jar);
             try {
                 addUrlToLoaderAndParent(classLoader, jar.toURI().toURL());
             } catch (MalformedURLException e) {
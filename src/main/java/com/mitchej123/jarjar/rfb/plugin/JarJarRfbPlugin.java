@@ -7,6 +7,7 @@ import org.jetbrains.annotations.Nullable;
 import com.gtnewhorizons.retrofuturabootstrap.api.PluginContext;
 import com.gtnewhorizons.retrofuturabootstrap.api.RfbClassTransformer;
 import com.gtnewhorizons.retrofuturabootstrap.api.RfbPlugin;
+import com.mitchej123.jarjar.rfb.transformer.ClassPathScanTransformer;
 import com.mitchej123.jarjar.rfb.transformer.CodeChickenCoreTransformer;
 import com.mitchej123.jarjar.rfb.transformer.EarlyAccessTransformer;
 import com.mitchej123.jarjar.rfb.transformer.FMLTransformer;
@@ -42,6 +43,7 @@ public class JarJarRfbPlugin implements RfbPlugin {
             new MixinPlatformAgentTransformer(),
             new V2ConstructionReplacerTransformer(),
             new CodeChickenCoreTransformer(),
+            new ClassPathScanTransformer(),
             new MetadataCollectionTransformer()
         };
     }
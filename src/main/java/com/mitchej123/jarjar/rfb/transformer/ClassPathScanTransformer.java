@@ -0,0 +1,64 @@
+package com.mitchej123.jarjar.rfb.transformer;
+
+import com.gtnewhorizon.gtnhlib.asm.ClassConstantPoolParser;
+import com.mitchej123.jarjar.Config;
+import com.gtnewhorizons.retrofuturabootstrap.api.ClassNodeHandle;
+import com.gtnewhorizons.retrofuturabootstrap.api.ExtensibleClassLoader;
+import com.gtnewhorizons.retrofuturabootstrap.api.RfbClassTransformer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.jar.Manifest;
+
+/*
+ * With indexedClassPath enabled in the config, redirects Guava's ClassPath.from(ClassLoader) to IndexedClassPath.from, which lists the mod jars
+ * discovery already scanned from its results. Does nothing otherwise.
+ */
+public class ClassPathScanTransformer implements RfbClassTransformer {
+    public static final String CLASS_PATH = "com/google/common/reflect/ClassPath";
+    public static final String INDEXED_CLASS_PATH = "com/mitchej123/jarjar/discovery/IndexedClassPath";
+    private static final String FROM_DESC = "(Ljava/lang/ClassLoader;)Lcom/google/common/reflect/ClassPath;";
+
+    private static final String[] CLASS_CONSTANTS = new String[] { CLASS_PATH };
+    private static final ClassConstantPoolParser cstPoolParser = new ClassConstantPoolParser(CLASS_CONSTANTS);
+
+    @Override
+    public @NotNull String id() {
+        return "jarjar-classpathscan-transformer";
+    }
+
+    @Override
+    public boolean shouldTransformClass(@NotNull ExtensibleClassLoader classLoader, @NotNull Context context, @Nullable Manifest manifest,
+        @NotNull String className, @NotNull ClassNodeHandle classNode) {
+        // opt-in, don't scan or rewrite anything otherwise
+        if (!Config.indexedClassPath) return false;
+        // Guava itself, and IndexedClassPath which falls back to the real scan
+        if (className.startsWith("com.google.common.") || className.startsWith("com.mitchej123.jarjar.")) return false;
+        return cstPoolParser.find(classNode.getOriginalBytes(), false);
+    }
+
+    @Override
+    public void transformClass(@NotNull ExtensibleClassLoader classLoader, @NotNull Context context, @Nullable Manifest manifest,
+        @NotNull String className, @NotNull ClassNodeHandle classNode) {
+        final @Nullable ClassNode cn = classNode.getNode();
+        if (cn == null || cn.methods == null) {
+            return;
+        }
+        for (final MethodNode mn : cn.methods) {
+            if (mn.instructions == null || mn.instructions.size() == 0) {
+                continue;
+            }
+            for (AbstractInsnNode insn = mn.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn.getOpcode() == Opcodes.INVOKESTATIC && insn instanceof MethodInsnNode mInsn && mInsn.owner.equals(CLASS_PATH)
+                    && mInsn.name.equals("from") && mInsn.desc.equals(FROM_DESC)) {
+                    mInsn.owner = INDEXED_CLASS_PATH;
+                }
+            }
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
@@ -44,6 +46,10 @@ public class CodeChickenCoreTransformer implements RfbClassTransformer {
          * This should prevent CCC's ClassDiscoverer from loading mods that are in the default libraries or have been disabled by LoaderV2.
          */
         for(final MethodNode mn : cn.methods) {
+            if (mn.name.equals("readFromZipFile") && mn.desc.equals("(Ljava/io/File;)V")) {
+                patchReadFromZipFile(mn);
+                continue;
+            }
             if(!mn.name.equals("findClasspathMods")) continue;
             AbstractInsnNode insn = mn.instructions.getFirst();
             while (insn != null) {
@@ -72,4 +78,24 @@ public class CodeChickenCoreTransformer implements RfbClassTransformer {
             }
         }
     }
+
+    /*
+     * Prepends
+     * - if (Hooks.readFromDiscovery(this, file)) return;
+     * so jars mod discovery already scanned are listed from its results instead of being read again.
+     */
+    private static void patchReadFromZipFile(@NotNull MethodNode mn) {
+        if (mn.instructions == null || mn.instructions.size() == 0) return;
+        final LabelNode read = new LabelNode();
+        final InsnList head = new InsnList();
+        head.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        head.add(new VarInsnNode(Opcodes.ALOAD, 1));
+        head.add(
+            new MethodInsnNode(Opcodes.INVOKESTATIC, "com/mitchej123/jarjar/util/Hooks", "readFromDiscovery", "(Ljava/lang/Object;Ljava/io/File;)Z", false));
+        head.add(new JumpInsnNode(Opcodes.IFEQ, read));
+        head.add(new InsnNode(Opcodes.RETURN));
+        head.add(read);
+        mn.instructions.insert(head);
+        mn.maxStack = Math.max(mn.maxStack, 2);
+    }
 }
@@ -1,9 +1,22 @@
 package com.mitchej123.jarjar.util;
 
+import com.mitchej123.jarjar.discovery.ClassOwnership;
 import com.mitchej123.jarjar.fml.common.DefaultLibraries;
+import com.mitchej123.jarjar.fml.common.LoaderV2;
+import com.mitchej123.jarjar.fml.common.discovery.ASMDataTableV2;
 import com.mitchej123.jarjar.fml.common.discovery.finder.DirectoryModCandidateFinder;
+import cpw.mods.fml.common.Loader;
+import cpw.mods.fml.relauncher.FMLRelaunchLog;
+import org.apache.logging.log4j.Level;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @SuppressWarnings("unused")
 public class Hooks {
@@ -15,4 +28,97 @@ public class Hooks {
     public static boolean shouldIgnore(File file) {
         return DefaultLibraries.isDefaultLibrary(file) || DirectoryModCandidateFinder.getDisabledFiles().contains(file.getName());
     }
+
+    private static Field classDiscovererMatcher;
+    private static Field classDiscovererSuperclasses;
+    private static Method classDiscovererCheckAddClass;
+    private static boolean classDiscovererUnsupported;
+
+    /**
+     * Replaces CodeChickenCore's ClassDiscoverer#readFromZipFile for jars mod discovery already scanned: the class names come from
+     * {@link ClassOwnership} instead of reading the whole jar. For jars whose classes are in the {@link ASMDataTableV2}, only the classes its
+     * subtype index lists as extending or implementing every one of the discoverer's superclasses are offered to the matcher, the rest couldn't
+     * pass checkAddClass anyway. What's left goes through the discoverer's own matcher and checkAddClass as before, which still checks the direct
+     * supertypes on the class bytes.
+     * <p>
+     * Unlike CCC's zip walk, only the classes discovery scans reach the matcher. Entries under {@code META-INF/versions/} can't be loaded under
+     * the name checkAddClass derives from their path and {@code module-info} has no superclass to check, so neither could be added anyway;
+     * Scala's {@code Foo$.class} module classes, {@code __MACOSX} entries and resources aren't offered to the matcher either.
+     *
+     * @return false if the jar wasn't scanned or the discoverer doesn't look as expected, in which case it reads the jar itself
+     */
+    public static boolean readFromDiscovery(Object discoverer, File file) {
+        final ClassOwnership ownership = ClassOwnership.get();
+        final List<String> classes = ownership != null ? ownership.getClassesIn(file) : null;
+        if (classes == null || !resolveClassDiscoverer(discoverer.getClass())) return false;
+        try {
+            final Object matcher = classDiscovererMatcher.get(discoverer);
+            final Method matches = matcher.getClass().getMethod("matches", String.class);
+            matches.setAccessible(true);
+            final Set<String> candidates = classDiscovererSuperclasses != null
+                ? subtypesOfAll((String[]) classDiscovererSuperclasses.get(discoverer), file)
+                : null;
+            for (String className : classes) {
+                if (candidates != null && !candidates.contains(className)) continue;
+                final String entry = className.replace('.', '/') + ".class";
+                if ((Boolean) matches.invoke(matcher, entry.substring(entry.lastIndexOf('/') + 1))) {
+                    classDiscovererCheckAddClass.invoke(discoverer, entry);
+                }
+            }
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            // only fails before the first class is looked at
+            FMLRelaunchLog.log(Level.WARN, e, "Unable to list %s from mod discovery, ClassDiscoverer will read it", file.getName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the binary names, with dots, of the classes extending or implementing all of superclasses, or null if the subtype index can't tell
+     * for the classes of file
+     */
+    private static @Nullable Set<String> subtypesOfAll(String[] superclasses, File file) {
+        if (superclasses == null || superclasses.length == 0) return null;
+        if (!(Loader.instance() instanceof LoaderV2 loader) || !(loader.getASMDataTable() instanceof ASMDataTableV2 table)) return null;
+        if (!table.hasClassesFrom(file)) return null;
+        Set<String> result = null;
+        for (String superclass : superclasses) {
+            // the index leaves out classes directly extending Object without interfaces
+            if (superclass.equals("java/lang/Object")) continue;
+            final Set<String> subtypes = table.getSubtypes(superclass);
+            if (result == null) {
+                result = new HashSet<>(subtypes);
+            } else {
+                result.retainAll(subtypes);
+            }
+        }
+        return result;
+    }
+
+    private static synchronized boolean resolveClassDiscoverer(Class<?> discovererClass) {
+        if (classDiscovererUnsupported) return false;
+        if (classDiscovererCheckAddClass != null) return true;
+        try {
+            final Field matcher = discovererClass.getDeclaredField("matcher");
+            matcher.setAccessible(true);
+            final Method checkAddClass = discovererClass.getDeclaredMethod("checkAddClass", String.class);
+            checkAddClass.setAccessible(true);
+            Field superclasses = null;
+            try {
+                superclasses = discovererClass.getDeclaredField("superclasses");
+                superclasses.setAccessible(true);
+                if (superclasses.getType() != String[].class) superclasses = null;
+            } catch (NoSuchFieldException ignored) {}
+            classDiscovererSuperclasses = superclasses;
+            classDiscovererMatcher = matcher;
+            classDiscovererCheckAddClass = checkAddClass;
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            FMLRelaunchLog.log(Level.WARN, e, "Unexpected ClassDiscoverer, it will read jars itself");
+            classDiscovererUnsupported = true;
+            return false;
+        }
+    }
 }
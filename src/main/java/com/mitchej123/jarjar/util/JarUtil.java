@@ -6,6 +6,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import com.gtnewhorizons.retrofuturabootstrap.versioning.DefaultArtifactVersion;
+import com.mitchej123.jarjar.Config;
+import com.mitchej123.jarjar.discovery.SharedJarScan;
 import com.mitchej123.jarjar.fml.common.discovery.ModCandidateV2;
 import com.mitchej123.jarjar.fml.relauncher.CoreModManagerV2;
 import cpw.mods.fml.common.FMLLog;
@@ -15,6 +17,7 @@ import cpw.mods.fml.common.discovery.ContainerType;
 import cpw.mods.fml.relauncher.CoreModManager;
 import cpw.mods.fml.relauncher.FMLLaunchHandler;
 import cpw.mods.fml.relauncher.FMLRelaunchLog;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.logging.log4j.Level;
@@ -22,10 +25,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -35,6 +41,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -47,8 +58,34 @@ public class JarUtil {
     public static final Logger logger = LogManager.getLogger("NestedJarUtil");
     private static final String versionPattern = ".*-([0-9]+\\.[0-9]+\\.[0-9]+(?:-[a-zA-Z0-9]+)?(?:\\+[a-zA-Z0-9]+)?).*\\.jar";
     private static final Pattern pattern = Pattern.compile(versionPattern);
+    private static volatile @Nullable SharedJarScan sharedScan;
+    public static final List<String> METADATA_ENTRIES = ImmutableList.of(JarFile.MANIFEST_NAME, "mcmod.info");
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> copyBuffer = ThreadLocal.withInitial(() -> new byte[COPY_BUFFER_SIZE]);
+    // In KiB, 0 means unlimited
+    private static final int extractionBudgetKiB = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, Config.nestedJarExtractionBudget) * 1024L);
+    private static final Semaphore extractionBudget = new Semaphore(extractionBudgetKiB);
+    // Share of the budget nested jars held in memory until resolution may take, the rest always stays available to extraction
+    private static final int pendingBudgetKiB = Config.lazyNestedJars ? extractionBudgetKiB / 2 : 0;
+    private static final AtomicInteger pendingBudgetHeld = new AtomicInteger();
+    private static final Map<String, CompletableFuture<File>> inFlightExtractions = new ConcurrentHashMap<>();
+
+    /**
+     * @param entryName path of the nested jar inside the jar holding it
+     */
+    @Desugar public record NestedJar(File file, String sourceFilename, String hash, String entryName) {
+    }
+
+    /**
+     * The parts of a jar that candidate examination looks at, independent of where they were read from.
+     */
+    @Desugar public record JarMetadata(@Nullable Manifest manifest, byte @Nullable [] modInfo, List<NestedJar> nestedJars, @Nullable Map<String, String> accessTransformers) {
+    }
 
-    @Desugar public record NestedJar(File file, String sourceFilename, String hash) {
+    @FunctionalInterface
+    private interface EntryOpener {
+        InputStream open() throws IOException;
     }
 
     public static @Nullable NestedJar getNestedJar(JarFile jar, String nestedJarPath, File targetDir) {
@@ -57,35 +94,162 @@ public class JarUtil {
             FMLRelaunchLog.log(Level.ERROR, "Unable to find nested jar %s in %s - ignoring", nestedJarPath, jar.getName());
             return null;
         }
+        return getNestedJar(() -> jar.getInputStream(nestedEntry), nestedEntry.getSize(), nestedJarPath, jar.getName(), targetDir);
+    }
 
+    public static @Nullable NestedJar getNestedJar(MappedZipFile zip, String nestedJarPath, File targetDir) {
+        final int nestedEntry = zip.find(nestedJarPath);
+        if (nestedEntry < 0) {
+            FMLRelaunchLog.log(Level.ERROR, "Unable to find nested jar %s in %s - ignoring", nestedJarPath, zip.getName());
+            return null;
+        }
+        return getNestedJar(() -> zip.getInputStream(nestedEntry), zip.getSize(nestedEntry), nestedJarPath, zip.getName(), targetDir);
+    }
+
+    private static @Nullable NestedJar getNestedJar(EntryOpener entry, long size, String nestedJarPath, String containerName, File targetDir) {
         // getName() is the full path, we only want the filename
         final String nestedJarFilename = FilenameUtils.getName(nestedJarPath);
-        final String nestedJarName = FilenameUtils.getBaseName(nestedJarPath);
-        final File outputJarFile;
-        final String hash;
-
-        try (RewindableModInputStream is = new RewindableModInputStream(jar.getInputStream(nestedEntry))) {
-            hash = DigestUtils.sha256Hex(is);
-            synchronized (JarUtil.class) {
-                outputJarFile = new File(targetDir, nestedJarName + "-" + hash + ".jar");
+
+        final int pendingPermits = Config.lazyNestedJars ? acquirePendingBudget(size) : -1;
+        if (pendingPermits >= 0) {
+            // The permits stay with the buffer until the pending jar is extracted or dropped
+            final Runnable release = () -> releasePendingBudget(pendingPermits);
+            boolean deferred = false;
+            try (InputStream in = entry.open(); RewindableModInputStream is = new RewindableModInputStream(in, size)) {
+                final String hash = sha256Hex(is);
+                final File outputJarFile = nestedJarFile(targetDir, nestedJarPath, hash);
                 if (!outputJarFile.exists()) {
-                    logger.info(String.format("Extracting nested jar %s from %s to %s", nestedJarPath, jar.getName(), outputJarFile));
-                    is.rewind();
-                    try (final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(outputJarFile))) {
-                        final byte[] buffer = new byte[1024];
-                        int bytesRead;
-                        while ((bytesRead = is.read(buffer)) != -1) {
-                            out.write(buffer, 0, bytesRead);
-                        }
-                    }
+                    deferred = NestedJarStore.defer(hash, outputJarFile, is.getBuffer(), release);
                 }
+                return new NestedJar(outputJarFile, nestedJarFilename, hash, nestedJarPath);
+            } catch (IOException e) {
+                logger.error(String.format("Unable to read the nested jar %s in %s - ignoring", nestedJarPath, containerName));
+                return null;
+            } finally {
+                if (!deferred) release.run();
             }
+        }
 
+        // Stream it twice instead of holding it in memory: once to hash it, and once more to write it out if it isn't extracted yet
+        final int permits = acquireExtractionBudget(size);
+        try {
+            final String hash;
+            try (InputStream is = entry.open()) {
+                hash = sha256Hex(is);
+            }
+            final File outputJarFile = nestedJarFile(targetDir, nestedJarPath, hash);
+            extractOnce(hash, outputJarFile, nestedJarPath, containerName, out -> {
+                try (InputStream is = entry.open()) {
+                    copyVerified(is, out, hash);
+                }
+            });
+            return new NestedJar(outputJarFile, nestedJarFilename, hash, nestedJarPath);
         } catch (IOException e) {
-            logger.error(String.format("Unable to read the nested jar %s in %s - ignoring", nestedJarPath, jar.getName()));
+            logger.error(String.format("Unable to read the nested jar %s in %s - ignoring", nestedJarPath, containerName));
             return null;
+        } finally {
+            extractionBudget.release(permits);
+        }
+    }
+
+    /**
+     * Extracts a nested jar unless it already is. Only one thread writes a given target, others asking for it at the same time wait for that
+     * writer; extractions of different jars run in parallel.
+     */
+    private static void extractOnce(String hash, File outputJarFile, String nestedJarPath, String containerName, NestedJarStore.ContentWriter content) throws IOException {
+        if (outputJarFile.exists()) return;
+
+        final String key = outputJarFile.getPath(); // the file name carries the content hash
+        final CompletableFuture<File> extraction = new CompletableFuture<>();
+        final CompletableFuture<File> inFlight = inFlightExtractions.putIfAbsent(key, extraction);
+        if (inFlight != null) {
+            try {
+                inFlight.join();
+                return;
+            } catch (CompletionException e) {
+                throw new IOException("Concurrent extraction of " + outputJarFile + " failed", e.getCause());
+            }
         }
-        return new NestedJar(outputJarFile, nestedJarFilename, hash);
+        try {
+            if (!outputJarFile.exists()) {
+                logger.info(String.format("Extracting nested jar %s from %s to %s", nestedJarPath, containerName, outputJarFile));
+                NestedJarStore.materialize(hash, outputJarFile, content);
+            }
+            extraction.complete(outputJarFile);
+        } catch (IOException | RuntimeException e) {
+            extraction.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightExtractions.remove(key, extraction);
+        }
+    }
+
+    private static File nestedJarFile(File targetDir, String nestedJarPath, String hash) {
+        return new File(targetDir, FilenameUtils.getBaseName(nestedJarPath) + "-" + hash + ".jar");
+    }
+
+    private static String sha256Hex(InputStream is) throws IOException {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        final byte[] buffer = copyBuffer.get();
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Copies is to out, failing if the content doesn't match the hash it is being published under.
+     */
+    private static void copyVerified(InputStream is, OutputStream out, String hash) throws IOException {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        final byte[] buffer = copyBuffer.get();
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, bytesRead);
+            out.write(buffer, 0, bytesRead);
+        }
+        if (!hash.equals(Hex.encodeHexString(digest.digest()))) {
+            throw new IOException("Nested jar content changed while extracting it");
+        }
+    }
+
+    /**
+     * Blocks until the extraction of an entry of the given size fits in the global in-flight budget.
+     *
+     * @return the number of permits to release once done
+     */
+    private static int acquireExtractionBudget(long size) {
+        if (extractionBudgetKiB == 0) return 0;
+        final int limit = extractionBudgetKiB - pendingBudgetKiB;
+        final int permits = size < 0 ? limit : (int) Math.min(limit, Math.max(1, (size + 1023) >> 10));
+        extractionBudget.acquireUninterruptibly(permits);
+        return permits;
+    }
+
+    /**
+     * Blocks until a nested jar of the given size can be held in memory within the budget. Jars held in memory only give their permits back after
+     * resolution, so together they may only take their share of it; over that, or if the size is unknown, the jar is extracted instead.
+     *
+     * @return the number of permits to release once the jar is extracted or dropped, or -1 if it doesn't fit
+     */
+    private static int acquirePendingBudget(long size) {
+        if (extractionBudgetKiB == 0) return 0;
+        if (size < 0) return -1;
+        final long permits = Math.max(1, (size + 1023) >> 10);
+        int held;
+        do {
+            held = pendingBudgetHeld.get();
+            if (held + permits > pendingBudgetKiB) return -1;
+        } while (!pendingBudgetHeld.compareAndSet(held, held + (int) permits));
+        extractionBudget.acquireUninterruptibly((int) permits);
+        return (int) permits;
+    }
+
+    private static void releasePendingBudget(int permits) {
+        if (permits == 0) return;
+        extractionBudget.release(permits);
+        pendingBudgetHeld.addAndGet(-permits);
     }
 
     public static DefaultArtifactVersion guessVersion(MetadataCollection mc, String name) {
@@ -135,6 +299,39 @@ public class JarUtil {
     }
 
     public static @Nullable ModCandidateV2 examineModCandidate(File modFile, ModCandidateV2 parent, boolean coremodPass, boolean isMinecraft, boolean isClasspath) {
+        final ByteBuffer pendingContent = NestedJarStore.getPending(modFile);
+        if (pendingContent != null) {
+            try {
+                final JarMetadata metadata = readJarMetadata(pendingContent, modFile.getPath(), coremodPass);
+                if (metadata.manifest() == null && coremodPass) return null;
+                return examineJarCandidate(metadata, modFile, parent, coremodPass, isMinecraft, isClasspath);
+            } catch (IOException ioe) {
+                FMLRelaunchLog.log(Level.ERROR, ioe, "Unable to read the nested jar %s - ignoring", modFile.getName());
+                return null;
+            }
+        }
+        // Only index the few entries examination looks at instead of the whole central directory
+        MappedZipFile zip = null;
+        try {
+            zip = MappedZipFile.open(modFile, METADATA_ENTRIES);
+        } catch (IOException e) {
+            FMLRelaunchLog.fine("Falling back to JarFile for %s: %s", modFile.getName(), e);
+        }
+        if (zip != null) {
+            try (MappedZipFile metadataZip = zip) {
+                if (metadataZip.findManifest() < 0 && coremodPass) {
+                    // No manifest means we don't really know anything about it other than it's not a coremod and has no access transformer list
+                    return null;
+                }
+                final JarMetadata metadata = readJarMetadata(metadataZip, coremodPass);
+                shareMetadata(modFile, metadata, coremodPass);
+                return examineJarCandidate(metadata, modFile, parent, coremodPass, isMinecraft, isClasspath);
+            } catch (IOException ioe) {
+                FMLRelaunchLog.log(Level.ERROR, ioe, "Unable to read the jar file %s - ignoring", modFile.getName());
+                return null;
+            }
+        }
+
         try (final JarFile jar = new JarFile(modFile)) {
             return examineJarCandidate(jar, modFile, parent, coremodPass, isMinecraft, isClasspath);
 
@@ -146,23 +343,120 @@ public class JarUtil {
     }
 
     public static @Nullable ModCandidateV2 examineJarCandidate(JarFile jar, File modFile, ModCandidateV2 parent, boolean coremodPass, boolean isMinecraft, boolean isClasspath) throws IOException {
-        final ModCandidateV2 modCandidate;
-        final Attributes attributes;
         if (jar.getManifest() == null && coremodPass) {
             // No manifest means we don't really know anything about it other than it's not a coremod and has no access transformer list
             return null;
         }
+        final JarMetadata metadata = readJarMetadata(jar, coremodPass);
+        shareMetadata(modFile, metadata, coremodPass);
+        return examineJarCandidate(metadata, modFile, parent, coremodPass, isMinecraft, isClasspath);
+    }
+
+    private static void shareMetadata(File modFile, JarMetadata metadata, boolean coremodPass) {
+        final SharedJarScan scan = sharedScan;
+        if (scan != null && coremodPass) {
+            scan.put(modFile, metadata);
+        }
+    }
+
+    /**
+     * Sets where the coremod pass records the metadata it reads so the mod pass can reuse it, or stops recording when null.
+     */
+    public static void shareScanResults(@Nullable SharedJarScan scan) {
+        sharedScan = scan;
+    }
 
-        attributes = jar.getManifest() != null ? jar.getManifest().getMainAttributes() : new Attributes();
+    /**
+     * Reads everything candidate examination needs from the jar: the manifest, mcmod.info, the (extracted) nested jars and, for the coremod pass, the
+     * access transformers listed in FMLAT.
+     */
+    public static JarMetadata readJarMetadata(JarFile jar, boolean coremodPass) throws IOException {
+        final Manifest manifest = jar.getManifest();
+        final JarEntry modInfoEntry = jar.getJarEntry("mcmod.info");
+        final byte[] modInfo = modInfoEntry != null ? readEntry(jar, modInfoEntry) : null;
+        final List<NestedJar> nestedJars = checkNestedJars(jar);
+
+        Map<String, String> accessTransformers = null;
+        final String atList = manifest != null ? manifest.getMainAttributes().getValue("FMLAT") : null;
+        if (atList != null && coremodPass) {
+            accessTransformers = new HashMap<>();
+            for (String at : atList.split(" ")) {
+                final JarEntry jarEntry = jar.getJarEntry("META-INF/" + at);
+                if (jarEntry == null) continue;
+                accessTransformers.put(
+                    String.format("%s!META-INF/%s", jar.getName(), at),
+                    new JarByteSource(jar, jarEntry).asCharSource(Charsets.UTF_8).read());
+            }
+        }
+        return new JarMetadata(manifest, modInfo, nestedJars, accessTransformers);
+    }
+
+    /**
+     * Same as {@link #readJarMetadata(JarFile, boolean)} for a jar that is only held in memory.
+     */
+    public static JarMetadata readJarMetadata(ByteBuffer content, String jarName, boolean coremodPass) throws IOException {
+        return readJarMetadata(new MappedZipFile(jarName, content), coremodPass);
+    }
+
+    /**
+     * The reader may be opened for {@link #METADATA_ENTRIES} only; the nested jars and access transformers named by the manifest are then looked up
+     * in a second pass over the central directory.
+     */
+    public static JarMetadata readJarMetadata(MappedZipFile metadataZip, boolean coremodPass) throws IOException {
+        final int manifestEntry = metadataZip.findManifest();
+        Manifest manifest = null;
+        if (manifestEntry >= 0) {
+            try (InputStream is = metadataZip.getInputStream(manifestEntry)) {
+                manifest = new Manifest(is);
+            }
+        }
+        final int modInfoEntry = metadataZip.find("mcmod.info");
+        final byte[] modInfo = modInfoEntry >= 0 ? metadataZip.readBytes(modInfoEntry) : null;
+
+        final String nestedJarList = manifest != null ? manifest.getMainAttributes().getValue("Jar-In-Jar") : null;
+        final String atList = manifest != null ? manifest.getMainAttributes().getValue("FMLAT") : null;
+        final List<String> referencedEntries = new ArrayList<>();
+        if (nestedJarList != null) {
+            Collections.addAll(referencedEntries, nestedJarList.split(","));
+        }
+        if (atList != null && coremodPass) {
+            for (String at : atList.split(" ")) {
+                referencedEntries.add("META-INF/" + at);
+            }
+        }
+        final MappedZipFile zip = referencedEntries.isEmpty() ? metadataZip : metadataZip.select(referencedEntries);
+
+        final List<NestedJar> nestedJars = checkNestedJars(zip, manifest);
+
+        Map<String, String> accessTransformers = null;
+        if (atList != null && coremodPass) {
+            accessTransformers = new HashMap<>();
+            for (String at : atList.split(" ")) {
+                final int atEntry = zip.find("META-INF/" + at);
+                if (atEntry < 0) continue;
+                accessTransformers.put(String.format("%s!META-INF/%s", zip.getName(), at), new String(zip.readBytes(atEntry), Charsets.UTF_8));
+            }
+        }
+        return new JarMetadata(manifest, modInfo, nestedJars, accessTransformers);
+    }
+
+    private static byte[] readEntry(JarFile jar, JarEntry entry) throws IOException {
+        try (InputStream is = jar.getInputStream(entry)) {
+            return is.readAllBytes();
+        }
+    }
+
+    public static @Nullable ModCandidateV2 examineJarCandidate(JarMetadata metadata, File modFile, ModCandidateV2 parent, boolean coremodPass, boolean isMinecraft, boolean isClasspath) {
+        final ModCandidateV2 modCandidate;
+        final Attributes attributes = metadata.manifest() != null ? metadata.manifest().getMainAttributes() : new Attributes();
 
         modCandidate = new ModCandidateV2(modFile, modFile, ContainerType.JAR, isMinecraft, isClasspath);
         modCandidate.addParent(parent);
 
-        final JarEntry modInfoEntry = jar.getJarEntry("mcmod.info");
         final MetadataCollection meta;
-        if (modInfoEntry != null) {
+        if (metadata.modInfo() != null) {
             FMLLog.finer("Located mcmod.info file in file %s", modFile);
-            meta = MetadataCollection.from(jar.getInputStream(modInfoEntry), modFile.getName());
+            meta = MetadataCollection.from(new ByteArrayInputStream(metadata.modInfo()), modFile.getName());
         } else {
             meta = MetadataCollection.from(null, "");
         }
@@ -171,22 +465,13 @@ public class JarUtil {
         modCandidate.setVersion(version);
 
         if(coremodPass) {
-            modCandidate.setNestedModcandidates(checkNestedMods(jar, modCandidate, coremodPass));
+            modCandidate.setNestedModcandidates(checkNestedMods(metadata.nestedJars(), modCandidate, coremodPass));
         } else {
-            modCandidate.setNestedJars(checkNestedJars(jar));
+            modCandidate.setNestedJars(metadata.nestedJars());
         }
 
-        final String atList = attributes.getValue("FMLAT");
-        if (atList != null && coremodPass) {
-            final Map<String, String> modAccessTransformers = new HashMap<>();
-            for (String at : atList.split(" ")) {
-                final JarEntry jarEntry = jar.getJarEntry("META-INF/" + at);
-                if (jarEntry == null) continue;
-                modAccessTransformers.put(
-                    String.format("%s!META-INF/%s", jar.getName(), at),
-                    new JarByteSource(jar, jarEntry).asCharSource(Charsets.UTF_8).read());
-            }
-            modCandidate.setAccessTransformers(modAccessTransformers);
+        if (metadata.accessTransformers() != null && coremodPass) {
+            modCandidate.setAccessTransformers(metadata.accessTransformers());
         }
 
         final String cascadedTweaker = attributes.getValue("TweakClass"); // *
@@ -225,7 +510,10 @@ public class JarUtil {
     }
 
     public static List<ModCandidateV2> checkNestedMods(JarFile jar, ModCandidateV2 parent, boolean coremodPass) throws IOException {
-        final List<NestedJar> nestedJars = checkNestedJars(jar);
+        return checkNestedMods(checkNestedJars(jar), parent, coremodPass);
+    }
+
+    public static List<ModCandidateV2> checkNestedMods(List<NestedJar> nestedJars, ModCandidateV2 parent, boolean coremodPass) {
         if (nestedJars.isEmpty()) return Collections.emptyList();
         final List<ModCandidateV2> nestedMods = new ArrayList<>();
 
@@ -245,6 +533,18 @@ public class JarUtil {
         }
     }
 
+    public static List<NestedJar> checkNestedJars(MappedZipFile zip, @Nullable Manifest manifest) {
+        final String nestedJarsEntry = manifest != null ? manifest.getMainAttributes().getValue("Jar-In-Jar") : null;
+        if (nestedJarsEntry == null) return Collections.emptyList();
+
+        final List<NestedJar> nestedJars = new ArrayList<>();
+        for (String nestedJarPath : new HashSet<>(Arrays.asList(nestedJarsEntry.split(",")))) {
+            final NestedJar nestedJar = getNestedJar(zip, nestedJarPath, CoreModManagerV2.getNestedDir());
+            if (nestedJar != null) nestedJars.add(nestedJar);
+        }
+        return nestedJars;
+    }
+
     public static List<NestedJar> checkNestedJars(JarFile jar) throws IOException {
         final Manifest manifest = jar.getManifest();
         if (manifest == null) return Collections.emptyList();
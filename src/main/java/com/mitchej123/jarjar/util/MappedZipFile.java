@@ -0,0 +1,562 @@
+package com.mitchej123.jarjar.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.jar.JarFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal read-only zip reader over a memory-mapped file or an in-memory buffer, for discovery scanning.
+ * <p>
+ * The central directory is parsed once into flat per-entry arrays and entries are addressed by index. STORED entries are read straight out of the
+ * buffer, DEFLATED entries are inflated with one reusable {@link Inflater} per thread instead of an Inflater and stream per entry. Encrypted entries,
+ * multi-disk archives and archives over 2 GiB are not supported; callers fall back to {@link JarFile} when opening fails.
+ * <p>
+ * A mapping is only released by the GC otherwise and keeps the file locked on Windows until then, so readers from {@link #open} must be closed.
+ * Closing unmaps the file right away; nothing read out of the reader may still reference its buffer by then.
+ */
+public final class MappedZipFile implements Closeable {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UNSUPPORTED = -1;
+
+    // Below this, one read is cheaper than setting up and faulting in a mapping
+    private static final long MAP_THRESHOLD = 256 * 1024;
+    private static final int MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> inputBuffers = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+    private static final ThreadLocal<byte[]> nameBuffers = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private static final @Nullable Method invokeCleaner;
+    private static final @Nullable Object unsafe;
+    private static final @Nullable Method directBufferCleaner;
+    private static final @Nullable Method cleanerClean;
+
+    static {
+        Method java9Cleaner = null, java8Cleaner = null, java8Clean = null;
+        Object theUnsafe = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            java9Cleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            theUnsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            java9Cleaner = null;
+            // Java 8 has no Unsafe.invokeCleaner, go through the buffer's own Cleaner
+            try {
+                java8Cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                java8Clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (ReflectiveOperationException | RuntimeException ignored) {}
+        }
+        invokeCleaner = java9Cleaner;
+        unsafe = theUnsafe;
+        directBufferCleaner = java8Cleaner;
+        cleanerClean = java8Clean;
+    }
+
+    private final String name;
+    private final ByteBuffer buffer;
+    // The mapping to release on close, null if this reader doesn't own one
+    private @Nullable MappedByteBuffer mapping;
+    // The reader this one was selected from, which owns the buffer
+    private final @Nullable MappedZipFile parent;
+    private boolean closed;
+    private final boolean complete;
+    private final String[] names;
+    private final int[] methods;
+    private final long[] compressedSizes;
+    private final long[] sizes;
+    private final long[] localHeaderOffsets;
+
+    public static MappedZipFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new ZipException("Too large to map: " + file);
+            if (size >= MAP_THRESHOLD) {
+                return map(file, channel, size, null);
+            }
+            final ByteBuffer content = ByteBuffer.allocate((int) size);
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0) throw new EOFException("Unexpected end of " + file);
+            }
+            content.flip();
+            return new MappedZipFile(file.getPath(), content);
+        }
+    }
+
+    /**
+     * Opens the archive indexing only the named entries. The central directory is streamed comparing raw name bytes, so the other entries cost
+     * neither a String nor a slot in the index, and only the pages that are actually touched get read.
+     */
+    public static MappedZipFile open(File file, Collection<String> entryNames) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new ZipException("Too large to map: " + file);
+            return map(file, channel, size, encodeNames(entryNames));
+        }
+    }
+
+    private static MappedZipFile map(File file, FileChannel channel, long size, byte @Nullable [][] wanted) throws IOException {
+        final MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        try {
+            return new MappedZipFile(file.getPath(), mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN), mapping, null, wanted);
+        } catch (IOException | RuntimeException e) {
+            unmap(mapping);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads an archive held in memory. The content isn't owned by the reader, closing it doesn't release anything.
+     */
+    public MappedZipFile(String name, ByteBuffer content) throws IOException {
+        this(name, content.slice().order(ByteOrder.LITTLE_ENDIAN), null, null, null);
+    }
+
+    /**
+     * @param wanted UTF-8 names of the entries to index, or null for all of them
+     */
+    private MappedZipFile(String name, ByteBuffer buffer, @Nullable MappedByteBuffer mapping, @Nullable MappedZipFile parent,
+        byte @Nullable [][] wanted) throws IOException {
+        this.name = name;
+        this.buffer = buffer;
+        this.mapping = mapping;
+        this.parent = parent;
+        this.complete = wanted == null;
+
+        final int end = findEnd();
+        long entryCount = u16(end + 10);
+        long cenSize = u32(end + 12);
+        long cenOffset = u32(end + 16);
+        long cenEnd = end;
+        if (entryCount == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) {
+            final int locator = end - ZIP64_LOCATOR_SIZE;
+            if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIG) {
+                final long end64 = buffer.getLong(locator + 8);
+                if (end64 < 0 || end64 > locator - 56 || buffer.getInt((int) end64) != ZIP64_END_SIG) {
+                    throw new ZipException("Invalid zip64 end header in " + name);
+                }
+                entryCount = buffer.getLong((int) end64 + 32);
+                cenSize = buffer.getLong((int) end64 + 40);
+                cenOffset = buffer.getLong((int) end64 + 48);
+                cenEnd = end64;
+            }
+        }
+        final long cenStart = cenEnd - cenSize;
+        if (cenStart < 0 || entryCount < 0 || entryCount > cenSize / CEN_HEADER_SIZE) {
+            throw new ZipException("Invalid central directory in " + name);
+        }
+        // Non-zero when something (e.g. a launcher stub) was prepended to the archive
+        final long base = cenStart - cenOffset;
+
+        final int count = (int) entryCount;
+        final int capacity = wanted == null ? count : Math.min(count, wanted.length);
+        String[] names = new String[capacity];
+        int[] methods = new int[capacity];
+        long[] compressedSizes = new long[capacity];
+        long[] sizes = new long[capacity];
+        long[] localHeaderOffsets = new long[capacity];
+        int indexed = 0;
+
+        int pos = (int) cenStart;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_HEADER_SIZE > cenEnd || buffer.getInt(pos) != CEN_SIG) throw new ZipException("Invalid central directory entry in " + name);
+            final int nameLength = u16(pos + 28);
+            final int extraLength = u16(pos + 30);
+            final int commentLength = u16(pos + 32);
+            final int next = pos + CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (wanted != null && !matchesAny(pos + CEN_HEADER_SIZE, nameLength, wanted)) {
+                pos = next;
+                continue;
+            }
+
+            final int flags = u16(pos + 8);
+            final int method = u16(pos + 10);
+            long compressedSize = u32(pos + 20);
+            long size = u32(pos + 24);
+            long localHeaderOffset = u32(pos + 42);
+
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                int extra = pos + CEN_HEADER_SIZE + nameLength;
+                final int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    final int id = u16(extra);
+                    final int length = u16(extra + 2);
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC) { size = buffer.getLong(field); field += 8; }
+                        if (compressedSize == ZIP64_MAGIC) { compressedSize = buffer.getLong(field); field += 8; }
+                        if (localHeaderOffset == ZIP64_MAGIC) { localHeaderOffset = buffer.getLong(field); }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            if (indexed == names.length) {
+                // Only when a wanted name occurs more than once
+                final int grown = indexed * 2 + 1;
+                names = Arrays.copyOf(names, grown);
+                methods = Arrays.copyOf(methods, grown);
+                compressedSizes = Arrays.copyOf(compressedSizes, grown);
+                sizes = Arrays.copyOf(sizes, grown);
+                localHeaderOffsets = Arrays.copyOf(localHeaderOffsets, grown);
+            }
+            names[indexed] = decodeName(pos + CEN_HEADER_SIZE, nameLength);
+            methods[indexed] = (flags & 1) != 0 || (method != STORED && method != DEFLATED) ? UNSUPPORTED : method;
+            compressedSizes[indexed] = compressedSize;
+            sizes[indexed] = size;
+            localHeaderOffsets[indexed] = base + localHeaderOffset;
+            indexed++;
+            pos = next;
+        }
+
+        this.names = indexed == names.length ? names : Arrays.copyOf(names, indexed);
+        this.methods = indexed == methods.length ? methods : Arrays.copyOf(methods, indexed);
+        this.compressedSizes = indexed == compressedSizes.length ? compressedSizes : Arrays.copyOf(compressedSizes, indexed);
+        this.sizes = indexed == sizes.length ? sizes : Arrays.copyOf(sizes, indexed);
+        this.localHeaderOffsets = indexed == localHeaderOffsets.length ? localHeaderOffsets : Arrays.copyOf(localHeaderOffsets, indexed);
+    }
+
+    /**
+     * @return a reader over the same content indexing only the named entries, or this if it already indexes every entry
+     */
+    public MappedZipFile select(Collection<String> entryNames) throws IOException {
+        ensureOpen();
+        return complete ? this : new MappedZipFile(name, buffer, null, parent != null ? parent : this, encodeNames(entryNames));
+    }
+
+    /**
+     * @return true if every entry is indexed, false if this was opened for a selection of entries
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return the uncompressed size of the entry
+     */
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    public boolean isStored(int index) {
+        return methods[index] == STORED;
+    }
+
+    /**
+     * @return the index of the entry with the given name, or -1
+     */
+    public int find(String entryName) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(entryName)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the manifest, matched case-insensitively like {@link JarFile} does, or -1
+     */
+    public int findManifest() {
+        final int index = find(JarFile.MANIFEST_NAME);
+        if (index >= 0) return index;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(JarFile.MANIFEST_NAME)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the whole entry into an exactly sized array.
+     */
+    public byte[] readBytes(int index) throws IOException {
+        final long size = sizes[index];
+        if (size > MAX_ENTRY_SIZE) throw new ZipException("Entry too large: " + names[index]);
+        final byte[] out = new byte[(int) size];
+        readBytes(index, out);
+        return out;
+    }
+
+    /**
+     * Reads the content of an entry into the start of out, which must hold at least {@link #getSize(int)} bytes.
+     *
+     * @return the number of bytes read
+     */
+    public int readBytes(int index, byte[] out) throws IOException {
+        final long size = sizes[index];
+        if (size > out.length) throw new ZipException("Entry too large: " + names[index]);
+        final int length = (int) size;
+        final ByteBuffer data = rawData(index);
+        switch (methods[index]) {
+            case STORED -> {
+                if (data.remaining() != length) throw new ZipException("Size mismatch for stored entry " + names[index]);
+                data.get(out, 0, length);
+            }
+            case DEFLATED -> inflate(data, out, length, names[index]);
+            default -> throw new ZipException("Unsupported compression or encryption for " + names[index]);
+        }
+        return length;
+    }
+
+    /**
+     * @return a view of the content of a STORED entry, without copying it
+     */
+    public ByteBuffer getStoredContent(int index) throws IOException {
+        if (methods[index] != STORED) throw new ZipException("Not a stored entry: " + names[index]);
+        return rawData(index);
+    }
+
+    public InputStream getInputStream(int index) throws IOException {
+        final ByteBuffer data = rawData(index);
+        return switch (methods[index]) {
+            case STORED -> new BufferInputStream(data);
+            case DEFLATED -> new EntryInflaterInputStream(new BufferInputStream(data));
+            default -> throw new ZipException("Unsupported compression or encryption for " + names[index]);
+        };
+    }
+
+    public @Nullable InputStream getInputStream(String entryName) throws IOException {
+        final int index = find(entryName);
+        return index >= 0 ? getInputStream(index) : null;
+    }
+
+    /**
+     * Unmaps the file if this reader mapped it. Readers selected from this one can't be used afterwards either.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (mapping != null) {
+            unmap(mapping);
+            mapping = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed || parent != null && parent.closed) throw new ZipException(name + " is closed");
+    }
+
+    /**
+     * Releases the mapping now instead of when the buffer is collected: through {@code Unsafe.invokeCleaner} on Java 9+ and the buffer's own
+     * Cleaner on Java 8. If neither is reachable the mapping is left to the GC. The buffer must not be accessed afterwards, that crashes the JVM.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        try {
+            if (invokeCleaner != null) {
+                invokeCleaner.invoke(unsafe, mapping);
+            } else if (directBufferCleaner != null && cleanerClean != null) {
+                final Object cleaner = directBufferCleaner.invoke(mapping);
+                if (cleaner != null) cleanerClean.invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {}
+    }
+
+    private ByteBuffer rawData(int index) throws IOException {
+        ensureOpen();
+        final long header = localHeaderOffsets[index];
+        if (header < 0 || header + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt((int) header) != LOCAL_HEADER_SIG) {
+            throw new ZipException("Invalid local header for " + names[index] + " in " + name);
+        }
+        final long start = header + LOCAL_HEADER_SIZE + u16((int) header + 26) + u16((int) header + 28);
+        final long end = start + compressedSizes[index];
+        if (end > buffer.limit()) throw new ZipException("Truncated entry " + names[index] + " in " + name);
+        final ByteBuffer data = buffer.duplicate();
+        data.limit((int) end);
+        data.position((int) start);
+        return data.slice();
+    }
+
+    private static void inflate(ByteBuffer data, byte[] out, int length, String entryName) throws IOException {
+        final Inflater inflater = inflaters.get();
+        final byte[] input = inputBuffers.get();
+        inflater.reset();
+        boolean padded = false;
+        int produced = 0;
+        try {
+            while (produced < length) {
+                if (inflater.needsInput()) {
+                    final int chunk = Math.min(input.length, data.remaining());
+                    if (chunk > 0) {
+                        data.get(input, 0, chunk);
+                        inflater.setInput(input, 0, chunk);
+                    } else if (!padded) {
+                        // nowrap inflaters may need one extra byte past the end of the data
+                        input[0] = 0;
+                        inflater.setInput(input, 0, 1);
+                        padded = true;
+                    } else {
+                        break;
+                    }
+                }
+                final int inflated = inflater.inflate(out, produced, length - produced);
+                produced += inflated;
+                if (inflated == 0 && (inflater.finished() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data in " + entryName + ": " + e.getMessage());
+        }
+        if (produced != length) throw new EOFException("Unexpected end of entry " + entryName);
+    }
+
+    private int findEnd() throws IOException {
+        final int limit = buffer.limit();
+        final int minPos = Math.max(0, limit - END_HEADER_SIZE - 0xFFFF);
+        for (int pos = limit - END_HEADER_SIZE; pos >= minPos; pos--) {
+            if (buffer.getInt(pos) == END_SIG && pos + END_HEADER_SIZE + u16(pos + 20) <= limit) return pos;
+        }
+        throw new ZipException("No end of central directory in " + name);
+    }
+
+    private static byte[][] encodeNames(Collection<String> entryNames) {
+        final byte[][] encoded = new byte[entryNames.size()][];
+        int i = 0;
+        for (String entryName : entryNames) {
+            encoded[i++] = entryName.getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    /**
+     * ASCII case-insensitive, so the manifest can be matched the way {@link JarFile} does; exact lookups compare the decoded name again.
+     */
+    private boolean matchesAny(int pos, int length, byte[][] wanted) {
+        outer:
+        for (byte[] candidate : wanted) {
+            if (candidate.length != length) continue;
+            for (int i = 0; i < length; i++) {
+                final byte a = buffer.get(pos + i);
+                final byte b = candidate[i];
+                if (a == b) continue;
+                final int lower = a | 0x20;
+                if (lower != (b | 0x20) || lower < 'a' || lower > 'z') continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private String decodeName(int pos, int length) {
+        final byte[] bytes = length <= 256 ? nameBuffers.get() : new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int u16(int pos) {
+        return buffer.getShort(pos) & 0xFFFF;
+    }
+
+    private long u32(int pos) {
+        return buffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * Like the JDK's zip entry streams: feeds one dummy byte at the end that nowrap inflaters may need, and ends its inflater on close.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+
+        EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) throw new EOFException("Unexpected end of ZLIB input stream");
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+}
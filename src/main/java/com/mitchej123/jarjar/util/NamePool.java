@@ -0,0 +1,67 @@
+package com.mitchej123.jarjar.util;
+
+import org.objectweb.asm.Type;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical instances of the names discovery keeps around: super class, interface and annotation names, members and packages.
+ * <p>
+ * The same few thousand names show up across hundreds of thousands of classes, pooling them makes the retained heap scale with distinct names
+ * rather than occurrences. Unlike {@link String#intern()} the pool goes away with {@link #release()} once discovery is done.
+ */
+public final class NamePool {
+
+    private static volatile Pool pool;
+
+    private NamePool() {}
+
+    /**
+     * @return the pooled instance equal to name
+     */
+    public static String name(String name) {
+        final ConcurrentHashMap<String, String> names = get().names;
+        final String pooled = names.get(name);
+        if (pooled != null) return pooled;
+        final String previous = names.putIfAbsent(name, name);
+        return previous != null ? previous : name;
+    }
+
+    /**
+     * @return the pooled type for a descriptor, such as an annotation descriptor
+     */
+    public static Type type(String descriptor) {
+        final ConcurrentHashMap<String, Type> types = get().types;
+        final Type pooled = types.get(descriptor);
+        if (pooled != null) return pooled;
+        final String pooledDescriptor = name(descriptor);
+        final Type type = Type.getType(pooledDescriptor);
+        final Type previous = types.putIfAbsent(pooledDescriptor, type);
+        return previous != null ? previous : type;
+    }
+
+    private static Pool get() {
+        Pool p = pool;
+        if (p == null) {
+            synchronized (NamePool.class) {
+                p = pool;
+                if (p == null) {
+                    p = new Pool();
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public static void release() {
+        synchronized (NamePool.class) {
+            pool = null;
+        }
+    }
+
+    private static final class Pool {
+        final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>(16384);
+        final ConcurrentHashMap<String, Type> types = new ConcurrentHashMap<>(1024);
+    }
+}
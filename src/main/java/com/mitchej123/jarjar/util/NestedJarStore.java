@@ -0,0 +1,170 @@
+package com.mitchej123.jarjar.util;
+
+import com.mitchej123.jarjar.Config;
+import net.minecraft.launchwrapper.Launch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed store for extracted nested jars, shared between game/server instances on the same host.
+ * <p>
+ * Jars are stored as {@code <store>/<first two hash chars>/<sha256>.jar}. Publication is lock-free: content is written to a temporary file next to
+ * its final location and atomically renamed into place, so concurrent writers (in this or another instance) can only ever publish identical complete
+ * files. Instances then hardlink the stored jar into their own nestedmods directory, falling back to a copy where the filesystem doesn't allow links.
+ * <p>
+ * With {@code lazyNestedJars} enabled, nested jars that haven't been extracted yet are only kept in memory under their target file and scanned from
+ * there; they are written out once resolution picks them. The pending set lives on {@link Launch#blackboard} as it is shared between the coremod and
+ * the mod pass.
+ */
+public final class NestedJarStore {
+
+    private static final Logger LOGGER = LogManager.getLogger("NestedJarStore");
+    public static final String PENDING_BLACKBOARD_KEY = "jarjar.pendingNestedJars";
+    private static final @Nullable File storeDir = setupStoreDir();
+    // target file path -> { hash, content, release of the extraction budget the content holds }
+    private static final Map<String, Object[]> pendingJars = setupPendingJars();
+
+    private NestedJarStore() {}
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static @Nullable File setupStoreDir() {
+        if (Config.nestedJarStore.isEmpty()) return null;
+        File dir = new File(Config.nestedJarStore);
+        if (!dir.isAbsolute()) {
+            dir = new File(Launch.minecraftHome, Config.nestedJarStore);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warn("Unable to create shared nested jar store {}, falling back to per-instance extraction", dir);
+            return null;
+        }
+        LOGGER.info("Using shared nested jar store {}", dir);
+        return dir;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object[]> setupPendingJars() {
+        return (Map<String, Object[]>) Launch.blackboard.computeIfAbsent(PENDING_BLACKBOARD_KEY, k -> new ConcurrentHashMap<String, Object[]>());
+    }
+
+    /**
+     * Initializes the pending set; call from the main thread before discovery workers start, the blackboard isn't thread-safe.
+     */
+    public static void ensureLoaded() {}
+
+    public static boolean isEnabled() {
+        return storeDir != null;
+    }
+
+    /**
+     * Makes the jar with the given hash available at target, publishing it to the shared store first if no instance has done so yet.
+     */
+    public static void materialize(String hash, File target, ContentWriter content) throws IOException {
+        if (storeDir == null) {
+            publish(target.toPath(), content);
+            return;
+        }
+        final Path stored = storeDir.toPath().resolve(hash.substring(0, 2)).resolve(hash + ".jar");
+        if (!Files.isRegularFile(stored)) {
+            Files.createDirectories(stored.getParent());
+            publish(stored, content);
+        }
+        if (Files.exists(target.toPath())) return;
+        try {
+            Files.createLink(target.toPath(), stored);
+        } catch (FileAlreadyExistsException e) {
+            // Another thread linked it first
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Unable to hardlink {} to {}, copying instead: {}", stored, target, e.toString());
+            publish(target.toPath(), out -> Files.copy(stored, out));
+        }
+    }
+
+    /**
+     * Keeps the content of a nested jar in memory instead of extracting it to target.
+     *
+     * @param release run once the content is dropped, after it was extracted or wasn't picked
+     * @return false if the jar was already pending, release is then left to the caller
+     */
+    public static boolean defer(String hash, File target, ByteBuffer content, Runnable release) {
+        return pendingJars.putIfAbsent(target.getAbsolutePath(), new Object[] { hash, content, release }) == null;
+    }
+
+    public static boolean isPending(File target) {
+        return pendingJars.containsKey(target.getAbsolutePath());
+    }
+
+    /**
+     * @return a view of the content of a deferred nested jar, or null if it isn't pending
+     */
+    public static @Nullable ByteBuffer getPending(File target) {
+        final Object[] pending = pendingJars.get(target.getAbsolutePath());
+        return pending != null ? ((ByteBuffer) pending[1]).duplicate() : null;
+    }
+
+    /**
+     * Writes a deferred nested jar to its target file, does nothing if it isn't pending.
+     */
+    public static void materializePending(File target) {
+        final Object[] pending = pendingJars.get(target.getAbsolutePath());
+        if (pending == null) return;
+        final ByteBuffer content = (ByteBuffer) pending[1];
+        try {
+            LOGGER.info("Extracting nested jar {}", target);
+            materialize((String) pending[0], target, out -> out.write(content.array(), content.arrayOffset() + content.position(), content.remaining()));
+            if (pendingJars.remove(target.getAbsolutePath(), pending)) {
+                ((Runnable) pending[2]).run();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to extract nested jar {}", target, e);
+        }
+    }
+
+    /**
+     * Drops the content of every nested jar that wasn't picked.
+     */
+    public static void releasePending() {
+        for (String target : pendingJars.keySet()) {
+            final Object[] pending = pendingJars.remove(target);
+            if (pending != null) {
+                ((Runnable) pending[2]).run();
+            }
+        }
+        Launch.blackboard.remove(PENDING_BLACKBOARD_KEY);
+    }
+
+    /**
+     * Writes content to a temporary file in the target's directory and atomically renames it into place.
+     */
+    public static void publish(Path target, ContentWriter content) throws IOException {
+        final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Same hash means same content, whoever won the race published an identical file
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -30,13 +30,24 @@ public class RewindableModInputStream extends InputStream {
     private int pos;
 
     public RewindableModInputStream(InputStream parent) throws IOException { // no parent.close()
-        buffer = readMod(parent);
+        this(parent, -1);
+    }
+
+    public RewindableModInputStream(InputStream parent, long sizeHint) throws IOException { // no parent.close()
+        buffer = readMod(parent, sizeHint);
 
         assert buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0;
     }
 
     public static ByteBuffer readMod(InputStream is) throws IOException {
-        int available = is.available();
+        return readMod(is, -1);
+    }
+
+    /**
+     * @param sizeHint the expected size, e.g. the zip entry size, or -1 if unknown
+     */
+    public static ByteBuffer readMod(InputStream is, long sizeHint) throws IOException {
+        int available = sizeHint > 0 && sizeHint < Integer.MAX_VALUE - 8 ? (int) sizeHint : is.available();
         boolean availableGood = available > 1;
         byte[] buffer = new byte[availableGood ? available : 30_000];
         int offset = 0;
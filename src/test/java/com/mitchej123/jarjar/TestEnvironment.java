@@ -0,0 +1,44 @@
+package com.mitchej123.jarjar;
+
+import net.minecraft.launchwrapper.Launch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+/**
+ * The parts of the launch environment discovery code reads, for tests running outside of a launch: a throwaway game directory and the blackboard.
+ * Config is read from the game directory once per JVM, so every test shares the same one with the default configuration.
+ */
+public final class TestEnvironment {
+
+    private static File minecraftHome;
+
+    private TestEnvironment() {}
+
+    public static synchronized File minecraftHome() {
+        if (minecraftHome == null) {
+            try {
+                minecraftHome = Files.createTempDirectory("jarjar-test").toFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            new File(minecraftHome, "config").mkdirs();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(minecraftHome.toPath())));
+            Launch.minecraftHome = minecraftHome;
+            if (Launch.blackboard == null) Launch.blackboard = new HashMap<>();
+        }
+        return minecraftHome;
+    }
+
+    private static void delete(Path root) {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ignored) {}
+    }
+}
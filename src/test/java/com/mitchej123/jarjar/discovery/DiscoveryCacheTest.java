@@ -0,0 +1,277 @@
+package com.mitchej123.jarjar.discovery;
+
+import com.mitchej123.jarjar.TestEnvironment;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+import com.mitchej123.jarjar.util.JarUtil;
+import com.mitchej123.jarjar.util.MappedZipFile;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes cache entries for jars in a temporary directory and reads them back, checking they are dropped whenever the jar or the entry changed.
+ */
+class DiscoveryCacheTest {
+
+    private static final String NESTED_ENTRY = "META-INF/libraries/inner-1.0.jar";
+
+    @TempDir
+    File tempDir;
+
+    @BeforeAll
+    static void setUp() {
+        TestEnvironment.minecraftHome();
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        final Path jar = writeJar("roundtrip.jar", null);
+        final DiscoveryCache cache = new DiscoveryCache();
+        assertTrue(cache.isEnabled());
+        final Manifest manifest = manifest();
+        final byte[] modInfo = "[{\"modid\": \"test\"}]".getBytes(StandardCharsets.UTF_8);
+        final ClassHeader header = new ClassHeader("a/B.class", "a/B", 52, "java/lang/Object", new String[] { "java/lang/Runnable" });
+        final ClassHeader renamed = new ClassHeader("shaded/a/C.class", "a/C", 50, null, new String[0]);
+        final byte[] annotated = classBytes(DiscoveryCacheTest.class);
+
+        try (DiscoveryCache.Writer writer = cache.writer(jar)) {
+            writer.writeMetadata(new JarUtil.JarMetadata(manifest, modInfo, Collections.emptyList(), null));
+            writer.writeClassHeader(header);
+            writer.writeClassHeader(renamed);
+            // only the first length bytes are the class, the rest of the buffer is left over from a bigger one
+            final byte[] buffer = new byte[annotated.length + 100];
+            System.arraycopy(annotated, 0, buffer, 0, annotated.length);
+            writer.writeClassBytes("com/mitchej123/jarjar/discovery/DiscoveryCacheTest.class", buffer, annotated.length);
+            writer.commit(true);
+        }
+
+        final DiscoveryCache.CachedJar cached = new DiscoveryCache().load(jar);
+        assertNotNull(cached);
+        assertTrue(cached.containsAPI());
+        assertEquals(manifest.getMainAttributes(), cached.metadata().manifest().getMainAttributes());
+        assertArrayEquals(modInfo, cached.metadata().modInfo());
+        assertTrue(cached.metadata().nestedJars().isEmpty());
+
+        assertEquals(2, cached.headers().size());
+        assertSameHeader(header, cached.headers().get(0));
+        assertSameHeader(renamed, cached.headers().get(1));
+        assertEquals("shaded/a/C.class", cached.headers().get(1).getClassEntry());
+
+        final AnnotatedClass expected = AnnotatedClass.read(annotated, annotated.length, "com/mitchej123/jarjar/discovery/DiscoveryCacheTest.class");
+        assertEquals(1, cached.classes().size());
+        final AnnotatedClass actual = cached.classes().get(0);
+        assertEquals(DiscoveryCacheTest.class.getName(), actual.getClassName());
+        assertSameHeader(expected.getHeader(), actual.getHeader());
+        assertEquals(expected.getAnnotations().size(), actual.getAnnotations().size());
+        for (int i = 0; i < expected.getAnnotations().size(); i++) {
+            assertEquals(expected.getAnnotations().get(i).type(), actual.getAnnotations().get(i).type());
+            assertEquals(expected.getAnnotations().get(i).member(), actual.getAnnotations().get(i).member());
+        }
+    }
+
+    @Test
+    void changedJarMisses() throws IOException {
+        final Path jar = writeJar("changed.jar", null);
+        final DiscoveryCache cache = new DiscoveryCache();
+        writeEntry(cache, jar);
+        assertNotNull(cache.load(jar));
+
+        final long size = Files.size(jar);
+        final long mtime = Files.getLastModifiedTime(jar).toMillis();
+        assertNull(cache.load(jar, size + 1, mtime));
+        assertNull(cache.load(jar, size, mtime + 1000));
+
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(mtime + 1000));
+        assertNull(cache.load(jar));
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(mtime));
+        assertNotNull(cache.load(jar));
+    }
+
+    @Test
+    void entriesAreKeyedByPath() throws IOException {
+        final Path first = writeJar("first.jar", null);
+        final Path second = writeJar("second.jar", null);
+        final DiscoveryCache cache = new DiscoveryCache();
+        writeEntry(cache, first);
+        assertNotNull(cache.load(first));
+        assertNull(cache.load(second));
+    }
+
+    @Test
+    void uncommittedEntryIsDiscarded() throws IOException {
+        final Path jar = writeJar("uncommitted.jar", null);
+        final DiscoveryCache cache = new DiscoveryCache();
+        try (DiscoveryCache.Writer writer = cache.writer(jar)) {
+            writer.writeMetadata(new JarUtil.JarMetadata(manifest(), null, Collections.emptyList(), null));
+            writer.writeClassHeader(new ClassHeader("a/B.class", "a/B", 52, "java/lang/Object", new String[0]));
+        }
+        assertNull(cache.load(jar));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDir())) {
+            for (Path file : files) {
+                assertFalse(file.getFileName().toString().startsWith(keyOf(jar)), "left behind " + file);
+            }
+        }
+    }
+
+    @Test
+    void corruptEntryMisses() throws IOException {
+        final Path jar = writeJar("corrupt.jar", null);
+        final DiscoveryCache cache = new DiscoveryCache();
+        writeEntry(cache, jar);
+        final File cacheFile = new File(cacheDir().toFile(), keyOf(jar) + ".cache");
+        assertTrue(cacheFile.isFile());
+
+        try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        assertNull(cache.load(jar));
+
+        Files.write(cacheFile.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        assertNull(cache.load(jar));
+    }
+
+    @Test
+    void pruneUnusedKeepsWhatWasLookedAt() throws IOException {
+        final Path kept = writeJar("kept.jar", null);
+        final Path dropped = writeJar("dropped.jar", null);
+        final DiscoveryCache first = new DiscoveryCache();
+        writeEntry(first, kept);
+        writeEntry(first, dropped);
+
+        final DiscoveryCache second = new DiscoveryCache();
+        assertNotNull(second.load(kept));
+        second.pruneUnused();
+        assertTrue(new File(cacheDir().toFile(), keyOf(kept) + ".cache").isFile());
+        assertFalse(new File(cacheDir().toFile(), keyOf(dropped) + ".cache").exists());
+        assertNotNull(new DiscoveryCache().load(kept));
+    }
+
+    @Test
+    void missingNestedJarIsRestored() throws IOException {
+        final byte[] inner = Files.readAllBytes(writeJar("inner.jar", null));
+        final Path outer = writeJar("outer.jar", inner);
+        final File nestedDir = new File(tempDir, "nested");
+        nestedDir.mkdirs();
+
+        final JarUtil.NestedJar nestedJar;
+        try (MappedZipFile zip = MappedZipFile.open(outer.toFile())) {
+            nestedJar = JarUtil.getNestedJar(zip, NESTED_ENTRY, nestedDir);
+        }
+        assertNotNull(nestedJar);
+        assertEquals(NESTED_ENTRY, nestedJar.entryName());
+        assertTrue(nestedJar.file().isFile());
+
+        final DiscoveryCache cache = new DiscoveryCache();
+        try (DiscoveryCache.Writer writer = cache.writer(outer)) {
+            writer.writeMetadata(new JarUtil.JarMetadata(manifest(), null, List.of(nestedJar), null));
+            writer.commit(false);
+        }
+
+        assertTrue(nestedJar.file().delete());
+        final DiscoveryCache.CachedJar cached = cache.load(outer);
+        assertNotNull(cached);
+        assertEquals(List.of(nestedJar), cached.metadata().nestedJars());
+        assertTrue(nestedJar.file().isFile());
+        assertArrayEquals(inner, Files.readAllBytes(nestedJar.file().toPath()));
+    }
+
+    @Test
+    void unrestorableNestedJarMisses() throws IOException {
+        final byte[] inner = Files.readAllBytes(writeJar("inner.jar", null));
+        final Path outer = writeJar("gone.jar", inner);
+        final File nestedDir = new File(tempDir, "nested");
+        nestedDir.mkdirs();
+        // recorded under a hash the entry in the outer jar doesn't have
+        final JarUtil.NestedJar stale = new JarUtil.NestedJar(new File(nestedDir, "inner-1.0-0000.jar"), "inner-1.0.jar", "0000", NESTED_ENTRY);
+
+        final DiscoveryCache cache = new DiscoveryCache();
+        try (DiscoveryCache.Writer writer = cache.writer(outer)) {
+            writer.writeMetadata(new JarUtil.JarMetadata(manifest(), null, List.of(stale), null));
+            writer.commit(false);
+        }
+        assertNull(cache.load(outer));
+    }
+
+    private static void writeEntry(DiscoveryCache cache, Path jar) {
+        try (DiscoveryCache.Writer writer = cache.writer(jar)) {
+            writer.writeMetadata(new JarUtil.JarMetadata(manifest(), null, Collections.emptyList(), null));
+            writer.writeClassHeader(new ClassHeader("a/B.class", "a/B", 52, "java/lang/Object", new String[0]));
+            writer.commit(false);
+        }
+    }
+
+    private static void assertSameHeader(ClassHeader expected, ClassHeader actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getClassEntry(), actual.getClassEntry());
+        assertEquals(expected.getClassVersion(), actual.getClassVersion());
+        assertEquals(expected.getSuperName(), actual.getSuperName());
+        assertArrayEquals(expected.getInterfaces(), actual.getInterfaces());
+    }
+
+    private static Manifest manifest() {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("FMLCorePlugin", "a.CorePlugin");
+        return manifest;
+    }
+
+    private static byte[] classBytes(Class<?> type) throws IOException {
+        try (InputStream in = type.getResourceAsStream(type.getSimpleName() + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Path cacheDir() {
+        return new File(TestEnvironment.minecraftHome(), "jarjar/discovery").toPath();
+    }
+
+    private static String keyOf(Path jar) {
+        return DigestUtils.sha1Hex(jar.toAbsolutePath().toString());
+    }
+
+    /**
+     * Writes a jar holding a manifest, a class and optionally a nested jar.
+     */
+    private Path writeJar(String name, byte[] nested) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(bytes, manifest())) {
+            jar.putNextEntry(new ZipEntry("a/B.class"));
+            jar.write(classBytes(DiscoveryCacheTest.class));
+            jar.putNextEntry(new ZipEntry("name.txt"));
+            jar.write(name.getBytes(StandardCharsets.UTF_8));
+            if (nested != null) {
+                jar.putNextEntry(new ZipEntry(NESTED_ENTRY));
+                jar.write(nested);
+            }
+        }
+        final Path path = new File(tempDir, name).toPath();
+        Files.write(path, bytes.toByteArray());
+        return path;
+    }
+}
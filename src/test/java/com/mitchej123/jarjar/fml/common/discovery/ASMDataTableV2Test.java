@@ -0,0 +1,262 @@
+package com.mitchej123.jarjar.fml.common.discovery;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+import com.mitchej123.jarjar.TestEnvironment;
+import com.mitchej123.jarjar.fml.common.discovery.asm.AnnotatedClass;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus.ClassFile;
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassHeader;
+import cpw.mods.fml.common.ModContainer;
+import cpw.mods.fml.common.discovery.ASMDataTable;
+import cpw.mods.fml.common.discovery.ASMDataTable.ASMData;
+import cpw.mods.fml.common.discovery.ContainerType;
+import cpw.mods.fml.common.discovery.ModCandidate;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Feeds the same scanned classes to FML's ASMDataTable and to ASMDataTableV2 and checks both answer the same. FML's table only gets the candidates
+ * that are retained, as it would if the others had never been scanned.
+ */
+class ASMDataTableV2Test {
+
+    private static final int CANDIDATES = 6;
+
+    @BeforeAll
+    static void setUp() {
+        TestEnvironment.minecraftHome();
+    }
+
+    @Test
+    void retainedCandidatesMatchFml() throws IOException {
+        final List<ClassFile> corpus = new ArrayList<>(ClassCorpus.containing(ClassReader.class, ASMDataTableV2Test.class));
+        corpus.addAll(ClassCorpus.jdk("java/lang", "java/lang/annotation", "java/util", "java/util/concurrent", "java/util/function", "java/io"));
+
+        final List<ModCandidateV2> candidates = new ArrayList<>();
+        for (int i = 0; i < CANDIDATES; i++) {
+            candidates.add(new ModCandidateV2(new File("mods/mod" + i + ".jar"), new File("mods/mod" + i + ".jar"), ContainerType.JAR, false, false));
+        }
+        // the first candidate is also scanned again under another candidate, like a jar both on the classpath and in mods
+        for (int i = 0; i < corpus.size(); i++) {
+            final ClassFile classFile = corpus.get(i);
+            final AnnotatedClass annotatedClass = AnnotatedClass.read(classFile.bytes(), classFile.bytes().length, classFile.entryName());
+            final ModCandidateV2 candidate = candidates.get(i % CANDIDATES);
+            if (annotatedClass.getAnnotations().isEmpty()) {
+                candidate.getClassHeaders().add(annotatedClass.getHeader());
+                if (i % CANDIDATES == 0) candidates.get(1).getClassHeaders().add(annotatedClass.getHeader());
+            } else {
+                candidate.getAnnotatedClasses().add(annotatedClass);
+                if (i % CANDIDATES == 0) candidates.get(1).getAnnotatedClasses().add(annotatedClass);
+            }
+        }
+        // retained in a different order than they were scanned, with candidates 2 and 4 dropped
+        final List<ModCandidateV2> retained = Arrays.asList(candidates.get(5), candidates.get(0), candidates.get(3), candidates.get(1));
+        final ModContainer container = container(candidates.get(3).getModContainer());
+        final ModContainer droppedContainer = container(candidates.get(2).getModContainer());
+
+        final ASMDataTable fml = new ASMDataTable();
+        fml.addContainer(container);
+        fml.addContainer(droppedContainer);
+        for (ModCandidateV2 candidate : retained) {
+            for (AnnotatedClass annotatedClass : candidate.getAnnotatedClasses()) {
+                annotatedClass.sendToTable(fml, candidate);
+            }
+            for (ClassHeader header : candidate.getClassHeaders()) {
+                header.sendToTable(fml, candidate);
+            }
+        }
+
+        final ASMDataTableV2 table = new ASMDataTableV2();
+        table.addContainer(container);
+        table.addContainer(droppedContainer);
+        final Set<String> names = new TreeSet<>();
+        for (ModCandidateV2 candidate : candidates) {
+            collectNames(candidate, names);
+            // staged by discovery workers, except for candidates sent straight to the table
+            if (candidate == candidates.get(3)) {
+                candidate.sendToTable(table);
+            } else {
+                table.stage(candidate);
+            }
+        }
+        table.retainCandidates(retained);
+
+        int entries = 0;
+        for (String name : names) {
+            final Set<ASMData> expected = fml.getAll(name);
+            final Set<ASMData> actual = table.getAll(name);
+            assertEquals(rows(expected), rows(actual), name);
+            assertSame(actual, table.getAll(name), name);
+            entries += actual.size();
+            assertInRetainedOrder(actual, retained, name);
+        }
+        assertTrue(entries > 1000, "only " + entries + " entries");
+        assertTrue(table.getAll("does.not.Exist").isEmpty());
+
+        final SetMultimap<String, ASMData> expectedForContainer = fml.getAnnotationsFor(container);
+        final SetMultimap<String, ASMData> actualForContainer = table.getAnnotationsFor(container);
+        assertEquals(expectedForContainer.keySet(), actualForContainer.keySet());
+        for (String name : expectedForContainer.keySet()) {
+            assertEquals(rows(expectedForContainer.get(name)), rows(actualForContainer.get(name)), name);
+        }
+        assertTrue(table.getAnnotationsFor(droppedContainer).isEmpty());
+
+        // both lookups hand out the same instances
+        for (Map.Entry<String, ASMData> entry : actualForContainer.entries()) {
+            assertTrue(table.getAll(entry.getKey()).contains(entry.getValue()), entry.getKey());
+        }
+        for (ModCandidateV2 dropped : Arrays.asList(candidates.get(2), candidates.get(4))) {
+            for (String pkg : dropped.getContainedPackages()) {
+                assertFalse(table.getCandidatesFor(pkg).contains(dropped), pkg);
+            }
+        }
+        for (ModCandidateV2 candidate : retained) {
+            for (String pkg : candidate.getContainedPackages()) {
+                assertTrue(table.getCandidatesFor(pkg).contains(candidate), pkg);
+            }
+        }
+    }
+
+    @Test
+    void apiEntriesAreSortedByVersion() {
+        final ModCandidate candidate = new ModCandidate(new File("api.jar"), new File("api.jar"), ContainerType.JAR);
+        final ASMDataTableV2 table = new ASMDataTableV2();
+        final String[] versions = { "1.0", "2.1.0", null, "1.10", "" };
+        for (int i = 0; i < versions.length; i++) {
+            final Map<String, Object> info = new HashMap<>();
+            if (versions[i] != null) info.put("apiVersion", versions[i]);
+            table.addASMData(candidate, "cpw.mods.fml.common.API", "api" + i + ".package-info", null, info);
+        }
+        table.retainCandidates(List.of(candidate));
+
+        final List<String> order = new ArrayList<>();
+        for (ASMData data : table.getAll("cpw.mods.fml.common.API")) {
+            order.add(data.getClassName());
+        }
+        assertEquals(List.of("api1.package-info", "api3.package-info", "api0.package-info", "api2.package-info", "api4.package-info"), order);
+        assertSame(table.getAll("cpw.mods.fml.common.API"), table.getAll("cpw.mods.fml.common.API"));
+    }
+
+    @Test
+    void containerIndexSurvivesAddContainer() {
+        final ModCandidate first = new ModCandidate(new File("first.jar"), new File("first.jar"), ContainerType.JAR);
+        final ModCandidate second = new ModCandidate(new File("second.jar"), new File("second.jar"), ContainerType.JAR);
+        final ASMDataTableV2 table = new ASMDataTableV2();
+        table.addASMData(first, "a.Mod", "a.First", "a.First", new HashMap<>());
+        table.addASMData(second, "a.Mod", "a.Second", "a.Second", new HashMap<>());
+        final ModContainer firstContainer = container(first.getModContainer());
+        table.addContainer(firstContainer);
+        table.retainCandidates(List.of(first, second));
+
+        final SetMultimap<String, ASMData> indexed = table.getAnnotationsFor(firstContainer);
+        assertEquals(1, indexed.size());
+        // containers added later, like LoaderV2 does, extend the index instead of dropping it
+        final ModContainer secondContainer = container(second.getModContainer());
+        final ModContainer sameJar = container(first.getModContainer());
+        final ModContainer noEntries = container(new File("other.jar"));
+        table.addContainer(secondContainer);
+        table.addContainer(sameJar);
+        table.addContainer(noEntries);
+        assertSame(indexed, table.getAnnotationsFor(firstContainer));
+        assertSame(indexed, table.getAnnotationsFor(sameJar));
+        assertEquals("a.Second", table.getAnnotationsFor(secondContainer).get("a.Mod").iterator().next().getClassName());
+        assertSame(table.getAll("a.Mod").stream().filter(d -> d.getCandidate() == second).findFirst().orElseThrow(),
+            table.getAnnotationsFor(secondContainer).get("a.Mod").iterator().next());
+        assertTrue(table.getAnnotationsFor(noEntries).isEmpty());
+    }
+
+    @Test
+    void knowsWhichJarsItHoldsClassesFrom() {
+        final ModCandidate kept = new ModCandidate(new File("mods/kept.jar"), new File("mods/kept.jar"), ContainerType.JAR);
+        final ModCandidate dropped = new ModCandidate(new File("mods/dropped.jar"), new File("mods/dropped.jar"), ContainerType.JAR);
+        final ASMDataTableV2 table = new ASMDataTableV2();
+        table.addASMData(kept, "a.Mod", "a.Kept", "a.Kept", new HashMap<>());
+        table.addASMData(dropped, "a.Mod", "a.Dropped", "a.Dropped", new HashMap<>());
+        assertTrue(table.hasClassesFrom(new File("mods/dropped.jar")));
+        table.retainCandidates(List.of(kept));
+
+        assertTrue(table.hasClassesFrom(new File("mods/kept.jar")));
+        assertTrue(table.hasClassesFrom(new File("mods/../mods/kept.jar").getAbsoluteFile()));
+        assertFalse(table.hasClassesFrom(new File("mods/dropped.jar")));
+        assertFalse(table.hasClassesFrom(new File("mods/other.jar")));
+    }
+
+    /**
+     * Every annotation and interface name an entry can be looked up by.
+     */
+    private static void collectNames(ModCandidateV2 candidate, Set<String> names) {
+        for (AnnotatedClass annotatedClass : candidate.getAnnotatedClasses()) {
+            for (AnnotatedClass.Annotation annotation : annotatedClass.getAnnotations()) {
+                names.add(annotation.type().getClassName());
+            }
+            names.addAll(Arrays.asList(annotatedClass.getHeader().getInterfaces()));
+        }
+        for (ClassHeader header : candidate.getClassHeaders()) {
+            names.addAll(Arrays.asList(header.getInterfaces()));
+        }
+    }
+
+    private static Multiset<List<Object>> rows(Collection<ASMData> entries) {
+        final Multiset<List<Object>> rows = HashMultiset.create();
+        for (ASMData data : entries) {
+            rows.add(Arrays.asList(
+                System.identityHashCode(data.getCandidate()),
+                data.getAnnotationName(),
+                data.getClassName(),
+                data.getObjectName(),
+                System.identityHashCode(data.getAnnotationInfo())));
+        }
+        return rows;
+    }
+
+    /**
+     * Annotation entries come in the order candidates were retained, then the implementing classes, again in that order.
+     */
+    private static void assertInRetainedOrder(Set<ASMData> entries, List<? extends ModCandidate> retained, String name) {
+        int last = -1;
+        boolean interfaces = false;
+        for (ASMData data : entries) {
+            final boolean isInterface = data.getAnnotationInfo() == null;
+            if (isInterface && !interfaces) {
+                interfaces = true;
+                last = -1;
+            }
+            final int index = retained.indexOf(data.getCandidate());
+            assertTrue(index >= last, name + " out of order");
+            last = index;
+        }
+    }
+
+    private static ModContainer container(File source) {
+        final Class<?>[] interfaces = { ModContainer.class };
+        final ClassLoader loader = ModContainer.class.getClassLoader();
+        return (ModContainer) Proxy.newProxyInstance(loader, interfaces, (proxy, method, args) -> switch (method.getName()) {
+            case "getSource" -> source;
+            case "getModId" -> source.getName();
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "ModContainer{" + source + '}';
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
@@ -0,0 +1,240 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus.ClassFile;
+import cpw.mods.fml.common.LoaderException;
+import cpw.mods.fml.common.discovery.asm.ASMModParser;
+import cpw.mods.fml.common.discovery.asm.ModAnnotation;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs FML's ASMModParser and {@link AnnotationExtractor} over the same classes and checks they find the same annotations, in the same order, with
+ * the same values. The corpus is the FML jar itself plus the fixtures below, which cover every kind of element value.
+ */
+class AnnotationExtractorTest {
+
+    private static final Class<?>[] FIXTURES = { FixtureAnnotated.class, FixtureBranch.class, FixtureLeaf.class, FixtureShade.class };
+
+    @Test
+    void fixturesMatchFml() {
+        for (Class<?> fixture : FIXTURES) {
+            final ClassFile classFile = fixture(fixture);
+            final List<List<Object>> expected = fml(classFile.bytes());
+            assertNotNull(expected, classFile.entryName());
+            assertEquals(expected, extracted(classFile), classFile.entryName());
+        }
+        // class 2 + 3 nested, field 2 + 1 nested, method 2, nested() 1 + 2 nested; parameter annotations aren't read
+        assertEquals(13, fml(fixture(FixtureAnnotated.class).bytes()).size());
+    }
+
+    @Test
+    void fmlJarMatchesFml() {
+        final List<ClassFile> corpus = ClassCorpus.containing(ASMModParser.class);
+        int parsed = 0, annotations = 0;
+        for (ClassFile classFile : corpus) {
+            final List<List<Object>> expected = fml(classFile.bytes());
+            // classes FML's ASM5 visitors can't read fail discovery either way
+            if (expected == null) continue;
+            parsed++;
+            annotations += expected.size();
+            assertEquals(expected, extracted(classFile), classFile.entryName());
+        }
+        assertTrue(parsed > corpus.size() / 2, "only " + parsed + " of " + corpus.size() + " classes parsed");
+        assertTrue(annotations > 0, "no annotations in " + parsed + " classes");
+    }
+
+    @Test
+    void valuesAreDecodedOnce() {
+        final ClassFile classFile = fixture(FixtureAnnotated.class);
+        final AnnotatedClass annotatedClass = AnnotationExtractor.read(classFile.bytes(), classFile.bytes().length, classFile.entryName());
+        assertNotNull(annotatedClass);
+        for (AnnotatedClass.Annotation annotation : annotatedClass.getAnnotations()) {
+            final Map<String, Object> values = annotation.values();
+            assertEquals(normalize(values), normalize(values));
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                // decoded values stay the same instances, like FML's maps
+                assertSame(entry.getValue(), values.get(entry.getKey()), entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return the annotations FML finds, or null if it can't parse the class
+     */
+    private static List<List<Object>> fml(byte[] bytes) {
+        final ASMModParser parser;
+        try {
+            parser = new ASMModParser(new ByteArrayInputStream(bytes));
+        } catch (LoaderException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final List<List<Object>> annotations = new ArrayList<>();
+        for (ModAnnotation annotation : parser.getAnnotations()) {
+            annotations.add(row(annotation.getASMType(), annotation.getMember(), annotation.getValues()));
+        }
+        return annotations;
+    }
+
+    private static List<List<Object>> extracted(ClassFile classFile) {
+        final byte[] bytes = classFile.bytes();
+        final AnnotatedClass annotatedClass = AnnotationExtractor.read(bytes, bytes.length, classFile.entryName());
+        assertNotNull(annotatedClass, classFile.entryName());
+        final List<List<Object>> annotations = new ArrayList<>();
+        for (AnnotatedClass.Annotation annotation : annotatedClass.getAnnotations()) {
+            annotations.add(row(annotation.type(), annotation.member(), annotation.values()));
+        }
+        return annotations;
+    }
+
+    private static List<Object> row(Type type, String member, Map<String, Object> values) {
+        return Arrays.asList(type.getDescriptor(), member, normalize(values));
+    }
+
+    /**
+     * Turns values into something equals can compare: enum holders into their descriptor and name, primitive arrays into lists.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof ModAnnotation.EnumHolder holder) {
+            return Arrays.asList("enum", holder.getDesc(), holder.getValue());
+        }
+        if (value instanceof Map<?, ?> map) {
+            final Map<Object, Object> normalized = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                normalized.put(entry.getKey(), normalize(entry.getValue()));
+            }
+            return normalized;
+        }
+        if (value instanceof List<?> list) {
+            final List<Object> normalized = new ArrayList<>(list.size());
+            for (Object element : list) {
+                normalized.add(normalize(element));
+            }
+            return normalized;
+        }
+        if (value != null && value.getClass().isArray()) {
+            final List<Object> normalized = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                normalized.add(Array.get(value, i));
+            }
+            return Arrays.asList(value.getClass().getComponentType(), normalized);
+        }
+        return value;
+    }
+
+    /**
+     * @return the class file of a fixture, marked as Java 8 so the ASM FML runs on in development reads it
+     */
+    private static ClassFile fixture(Class<?> fixture) {
+        final String entryName = fixture.getName().replace('.', '/') + ".class";
+        try (InputStream stream = fixture.getClassLoader().getResourceAsStream(entryName)) {
+            assertNotNull(stream, entryName);
+            final byte[] bytes = stream.readAllBytes();
+            bytes[6] = 0;
+            bytes[7] = 52;
+            return new ClassFile(entryName, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+// The fixtures are top level: nested classes get NestHost and NestMembers attributes, which FML's ASM5 visitors refuse.
+
+enum FixtureShade {
+    LIGHT,
+    DARK
+}
+
+@Retention(RetentionPolicy.RUNTIME)
+@interface FixtureLeaf {
+
+    String value() default "";
+
+    FixtureShade shade() default FixtureShade.LIGHT;
+
+    int[] numbers() default {};
+}
+
+@Retention(RetentionPolicy.CLASS)
+@interface FixtureBranch {
+
+    FixtureLeaf leaf();
+
+    FixtureLeaf[] leaves() default {};
+
+    FixtureShade[] shades() default {};
+
+    Class<?> type() default Object.class;
+
+    Class<?>[] types() default {};
+
+    char letter() default 'a';
+
+    String[] names() default {};
+
+    byte[] bytes() default {};
+
+    boolean[] flags() default {};
+
+    long[] longs() default {};
+
+    double[] ratios() default {};
+
+    float ratio() default 0;
+
+    short small() default 0;
+
+    boolean flag() default false;
+}
+
+@FixtureBranch(
+    leaf = @FixtureLeaf("root"),
+    leaves = { @FixtureLeaf(value = "a", shade = FixtureShade.DARK), @FixtureLeaf(numbers = { 1, 2 }) },
+    shades = { FixtureShade.DARK, FixtureShade.LIGHT },
+    type = String.class,
+    types = { int.class, String[].class, FixtureAnnotated.class },
+    letter = '\u00e9',
+    names = { "x", "", "\u2603" },
+    bytes = { -1, 0, 127 },
+    flags = { true, false },
+    longs = { 1L, Long.MAX_VALUE },
+    ratios = { 0.5, Double.NaN },
+    ratio = -0f,
+    small = Short.MIN_VALUE,
+    flag = true)
+@FixtureLeaf(value = "class", shade = FixtureShade.DARK)
+class FixtureAnnotated {
+
+    @FixtureLeaf("field")
+    @FixtureBranch(leaf = @FixtureLeaf, names = {})
+    int field;
+
+    @Deprecated
+    @FixtureLeaf(numbers = 3)
+    String method(@FixtureLeaf("parameter") int value) {
+        return null;
+    }
+
+    @FixtureBranch(leaf = @FixtureLeaf(numbers = {}), leaves = @FixtureLeaf(shade = FixtureShade.DARK), shades = FixtureShade.LIGHT)
+    void nested() {}
+}
@@ -0,0 +1,240 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus.ClassFile;
+import cpw.mods.fml.common.Optional;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.TypePath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the prescan against the annotations {@link ClassReader} finds: it must match every class using one of the scanned annotations anywhere,
+ * and only classes that at least mention one.
+ */
+class AnnotationPrescanTest {
+
+    private static final Set<String> SCANNED = new TreeSet<>(Arrays.asList(
+        "Ljava/lang/Deprecated;",
+        "Ljava/lang/FunctionalInterface;",
+        "Ljava/lang/annotation/Documented;",
+        "Ljdk/internal/vm/annotation/IntrinsicCandidate;",
+        "Lorg/junit/jupiter/api/Test;",
+        "Lcom/mitchej123/jarjar/Unused;"));
+
+    @Test
+    void matchesClassesUsingScannedAnnotations() {
+        final AnnotationPrescan prescan = new AnnotationPrescan(SCANNED);
+        final List<ClassFile> corpus = new ArrayList<>(ClassCorpus.containing(ClassReader.class, AnnotationPrescanTest.class));
+        corpus.addAll(ClassCorpus.jdk("java/lang", "java/lang/annotation", "java/util", "java/util/function"));
+        int annotated = 0, matched = 0;
+        for (ClassFile classFile : corpus) {
+            final byte[] bytes = classFile.bytes();
+            final Set<String> used = annotationsOf(bytes);
+            used.retainAll(SCANNED);
+            final boolean matches = prescan.matches(bytes, 0, bytes.length);
+            if (!used.isEmpty()) {
+                annotated++;
+                assertTrue(matches, classFile.entryName() + " uses " + used);
+            }
+            if (matches) {
+                matched++;
+                assertTrue(mentionsScanned(bytes), classFile.entryName());
+            }
+        }
+        // make sure the corpus exercises both sides
+        assertTrue(annotated > 50, "only " + annotated + " classes use scanned annotations");
+        assertTrue(matched < corpus.size() / 2, matched + " of " + corpus.size() + " classes matched");
+    }
+
+    @Test
+    void readsAtAnOffset() {
+        final AnnotationPrescan prescan = new AnnotationPrescan(SCANNED);
+        final byte[] bytes = ClassCorpus.jdk("java/lang").stream().filter(c -> c.entryName().equals("java/lang/Deprecated.class")).findFirst()
+            .orElseThrow().bytes();
+        final byte[] padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 11, bytes.length);
+        assertTrue(prescan.matches(padded, 11, bytes.length));
+        assertFalse(new AnnotationPrescan(Set.of("Lcom/mitchej123/jarjar/Unused;")).matches(padded, 11, bytes.length));
+    }
+
+    @Test
+    void malformedClassesMatch() {
+        final AnnotationPrescan prescan = new AnnotationPrescan(SCANNED);
+        final byte[] bytes = ClassCorpus.jdk("java/util").get(0).bytes();
+        // cut short, or with an unknown constant pool tag, they go to the full parser which reports them
+        assertTrue(prescan.matches(bytes, 0, 5));
+        assertTrue(prescan.matches(bytes, 0, 40));
+        final byte[] broken = bytes.clone();
+        broken[10] = 99;
+        assertTrue(prescan.matches(broken, 0, broken.length));
+    }
+
+    @Test
+    void emptySetMatchesNothing() {
+        final AnnotationPrescan prescan = new AnnotationPrescan(Set.of());
+        for (ClassFile classFile : ClassCorpus.jdk("java/lang/annotation")) {
+            assertFalse(prescan.matches(classFile.bytes(), 0, classFile.bytes().length), classFile.entryName());
+        }
+    }
+
+    @Test
+    void defaultsMatchOptionalOnlyClasses() {
+        // ModAPITransformer strips these, skipping them crashes once the optional mod is missing
+        final AnnotationPrescan prescan = new AnnotationPrescan(AnnotationPrescan.defaultDescriptors());
+        for (Class<?> fixture : List.of(OptionalInterfaceOnly.class, OptionalInterfaceListOnly.class, OptionalMethodOnly.class)) {
+            final byte[] bytes = classBytes(fixture);
+            assertTrue(prescan.matches(bytes, 0, bytes.length), fixture.getName());
+        }
+        final byte[] bytes = classBytes(NotAnnotated.class);
+        assertFalse(prescan.matches(bytes, 0, bytes.length));
+    }
+
+    @Optional.Interface(iface = "missing.mod.Api", modid = "missing")
+    static class OptionalInterfaceOnly {}
+
+    @Optional.InterfaceList(@Optional.Interface(iface = "missing.mod.Api", modid = "missing"))
+    static class OptionalInterfaceListOnly {}
+
+    static class OptionalMethodOnly {
+
+        @Optional.Method(modid = "missing")
+        void method() {}
+    }
+
+    static class NotAnnotated {}
+
+    private static byte[] classBytes(Class<?> type) {
+        final String entryName = type.getName().replace('.', '/') + ".class";
+        try (InputStream stream = type.getClassLoader().getResourceAsStream(entryName)) {
+            assertNotNull(stream, entryName);
+            return stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean mentionsScanned(byte[] bytes) {
+        final String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        for (String descriptor : SCANNED) {
+            if (content.contains(new String(descriptor.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the descriptor of every annotation anywhere in the class, including parameter and type annotations and nested ones
+     */
+    private static Set<String> annotationsOf(byte[] bytes) {
+        final Set<String> descriptors = new HashSet<>();
+        final AnnotationVisitor values = new AnnotationVisitor(Opcodes.ASM9) {
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+                descriptors.add(descriptor);
+                return this;
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                return this;
+            }
+        };
+        final MethodVisitor method = new MethodVisitor(Opcodes.ASM9) {
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                return values;
+            }
+        };
+        final FieldVisitor field = new FieldVisitor(Opcodes.ASM9) {
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+        };
+        final RecordComponentVisitor component = new RecordComponentVisitor(Opcodes.ASM9) {
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+        };
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                descriptors.add(descriptor);
+                return values;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                return field;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return method;
+            }
+
+            @Override
+            public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+                return component;
+            }
+        }, ClassReader.SKIP_FRAMES);
+        return descriptors;
+    }
+}
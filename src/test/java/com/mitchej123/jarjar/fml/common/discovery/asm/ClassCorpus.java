@@ -0,0 +1,97 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Real class files to compare the discovery readers against ASM and FML with: everything in the jars or directories holding the given classes, and
+ * the JDK's own classes in a few packages.
+ */
+public final class ClassCorpus {
+
+    public record ClassFile(String entryName, byte[] bytes) {
+
+        @Override
+        public String toString() {
+            return entryName;
+        }
+    }
+
+    private ClassCorpus() {}
+
+    /**
+     * @return every class file in the jars or directories the given classes were loaded from
+     */
+    public static List<ClassFile> containing(Class<?>... anchors) {
+        final List<ClassFile> classes = new ArrayList<>();
+        for (Class<?> anchor : anchors) {
+            try {
+                final Path source = Paths.get(anchor.getProtectionDomain().getCodeSource().getLocation().toURI());
+                if (Files.isDirectory(source)) {
+                    readDirectory(source, classes);
+                } else {
+                    readJar(source, classes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @param packages package directories of java.base, such as {@code java/util}
+     * @return the JDK's classes directly in those packages
+     */
+    public static List<ClassFile> jdk(String... packages) {
+        final List<ClassFile> classes = new ArrayList<>();
+        final FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        for (String pkg : packages) {
+            try (Stream<Path> files = Files.list(jrt.getPath("modules", "java.base", pkg))) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    if (file.toString().endsWith(".class")) classes.add(new ClassFile(pkg + "/" + file.getFileName(), Files.readAllBytes(file)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return classes;
+    }
+
+    private static void readDirectory(Path root, List<ClassFile> classes) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                if (file.toString().endsWith(".class")) {
+                    classes.add(new ClassFile(root.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file)));
+                }
+            }
+        }
+    }
+
+    private static void readJar(Path jar, List<ClassFile> classes) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    classes.add(new ClassFile(entry.getName(), in.readAllBytes()));
+                }
+            }
+        }
+    }
+}
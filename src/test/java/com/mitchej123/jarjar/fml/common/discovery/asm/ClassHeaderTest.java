@@ -0,0 +1,97 @@
+package com.mitchej123.jarjar.fml.common.discovery.asm;
+
+import com.mitchej123.jarjar.fml.common.discovery.asm.ClassCorpus.ClassFile;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads the headers of real class files and checks them against what {@link ClassReader} sees.
+ */
+class ClassHeaderTest {
+
+    private static List<ClassFile> corpus() {
+        final List<ClassFile> corpus = new ArrayList<>(ClassCorpus.containing(ClassReader.class, ClassHeaderTest.class));
+        corpus.addAll(ClassCorpus.jdk("java/lang", "java/util", "java/util/concurrent"));
+        return corpus;
+    }
+
+    @Test
+    void matchesClassReader() {
+        final List<ClassFile> corpus = corpus();
+        assertTrue(corpus.size() > 500, "corpus too small: " + corpus.size());
+        for (ClassFile classFile : corpus) {
+            final ClassNode node = new ClassNode();
+            new ClassReader(classFile.bytes()).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+            final ClassHeader header = ClassHeader.read(classFile.bytes(), 0, classFile.bytes().length, classFile.entryName());
+            assertNotNull(header, classFile.entryName());
+            assertEquals(node.name, header.getName(), classFile.entryName());
+            assertEquals(node.superName, header.getSuperName(), classFile.entryName());
+            assertEquals(node.interfaces, Arrays.asList(header.getInterfaces()), classFile.entryName());
+            assertEquals(node.version & 0xFFFF, header.getClassVersion(), classFile.entryName());
+            assertEquals(classFile.entryName(), header.getClassEntry());
+        }
+    }
+
+    @Test
+    void readsAtAnOffset() {
+        final byte[] bytes = corpus().get(0).bytes();
+        final byte[] padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 13, bytes.length);
+        final ClassHeader expected = ClassHeader.read(bytes, 0, bytes.length, "a/B.class");
+        final ClassHeader header = ClassHeader.read(padded, 13, bytes.length, "a/B.class");
+        assertNotNull(header);
+        assertEquals(expected.getName(), header.getName());
+        assertEquals(expected.getSuperName(), header.getSuperName());
+        assertArrayEquals(expected.getInterfaces(), header.getInterfaces());
+        assertEquals(expected.getClassVersion(), header.getClassVersion());
+    }
+
+    @Test
+    void keepsUnusualEntryNames() {
+        final ClassFile classFile = ClassCorpus.jdk("java/util").get(0);
+        final byte[] bytes = classFile.bytes();
+        final ClassHeader header = ClassHeader.read(bytes, 0, bytes.length, "shaded/" + classFile.entryName());
+        assertNotNull(header);
+        assertEquals("shaded/" + classFile.entryName(), header.getClassEntry());
+    }
+
+    @Test
+    void truncatedClassesDontThrow() {
+        final List<ClassFile> corpus = ClassCorpus.jdk("java/util");
+        for (ClassFile classFile : corpus.subList(0, Math.min(50, corpus.size()))) {
+            final byte[] bytes = classFile.bytes();
+            final ClassHeader full = ClassHeader.read(bytes, 0, bytes.length, classFile.entryName());
+            assertNotNull(full);
+            for (int length = 0; length < bytes.length; length += Math.max(1, length / 8)) {
+                final ClassHeader header = ClassHeader.read(bytes, 0, length, classFile.entryName());
+                // the header sits right after the constant pool, a class cut off after it still has one
+                if (header != null) {
+                    assertEquals(full.getName(), header.getName(), classFile.entryName());
+                    assertArrayEquals(full.getInterfaces(), header.getInterfaces(), classFile.entryName());
+                }
+            }
+        }
+    }
+
+    @Test
+    void rejectsGarbage() {
+        assertNull(ClassHeader.read(new byte[0], 0, 0, "a.class"));
+        assertNull(ClassHeader.read(new byte[64], 0, 64, "a.class"));
+        final byte[] bytes = ClassCorpus.jdk("java/util").get(0).bytes().clone();
+        // an unknown constant pool tag
+        bytes[10] = 99;
+        assertNull(ClassHeader.read(bytes, 0, bytes.length, "a.class"));
+    }
+}
@@ -0,0 +1,217 @@
+package com.mitchej123.jarjar.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads archives written by {@link ZipOutputStream} and checks every entry against {@link ZipFile}.
+ */
+class MappedZipFileTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void smallArchiveMatchesZipFile() throws IOException {
+        final File jar = writeArchive("small.jar", 20, 2 * 1024, new byte[0]);
+        assertMatchesZipFile(jar);
+    }
+
+    @Test
+    void mappedArchiveMatchesZipFile() throws IOException {
+        // large enough to be mapped rather than read
+        final File jar = writeArchive("mapped.jar", 200, 8 * 1024, new byte[0]);
+        assertTrue(jar.length() >= 256 * 1024);
+        assertMatchesZipFile(jar);
+    }
+
+    @Test
+    void prependedDataIsSkipped() throws IOException {
+        final byte[] stub = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.US_ASCII);
+        final File jar = writeArchive("stub.jar", 10, 1024, stub);
+        assertMatchesZipFile(jar);
+    }
+
+    @Test
+    void inMemoryContentMatchesZipFile() throws IOException {
+        final File jar = writeArchive("memory.jar", 30, 4 * 1024, new byte[0]);
+        final byte[] content = Files.readAllBytes(jar.toPath());
+        // the reader only sees the buffer from its position on
+        final ByteBuffer buffer = ByteBuffer.allocate(content.length + 7);
+        buffer.position(7);
+        buffer.put(content).position(7);
+        try (ZipFile zipFile = new ZipFile(jar); MappedZipFile zip = new MappedZipFile(jar.getPath(), buffer)) {
+            assertSameEntries(zipFile, zip);
+        }
+    }
+
+    @Test
+    void selectedEntriesOnly() throws IOException {
+        final File jar = writeArchive("select.jar", 200, 8 * 1024, new byte[0]);
+        try (ZipFile zipFile = new ZipFile(jar); MappedZipFile zip = MappedZipFile.open(jar, Arrays.asList("meta-inf/MANIFEST.MF", "entry7.bin"))) {
+            assertFalse(zip.isComplete());
+            assertEquals(2, zip.size());
+            assertEquals(-1, zip.find("entry8.bin"));
+            // the manifest is matched case-insensitively like JarFile does, exact lookups aren't
+            assertEquals(-1, zip.find("meta-inf/MANIFEST.MF"));
+            assertArrayEquals(read(zipFile, JarFile.MANIFEST_NAME), zip.readBytes(zip.findManifest()));
+            assertArrayEquals(read(zipFile, "entry7.bin"), zip.readBytes(zip.find("entry7.bin")));
+
+            final MappedZipFile selected = zip.select(List.of("entry9.bin"));
+            assertEquals(1, selected.size());
+            assertArrayEquals(read(zipFile, "entry9.bin"), selected.readBytes(0));
+        }
+    }
+
+    @Test
+    void completeReaderSelectsItself() throws IOException {
+        final File jar = writeArchive("complete.jar", 5, 1024, new byte[0]);
+        try (MappedZipFile zip = MappedZipFile.open(jar)) {
+            assertTrue(zip.isComplete());
+            assertSame(zip, zip.select(List.of("entry1.bin")));
+        }
+    }
+
+    @Test
+    void closedReaderRefusesReads() throws IOException {
+        final File jar = writeArchive("closed.jar", 200, 8 * 1024, new byte[0]);
+        final MappedZipFile zip = MappedZipFile.open(jar, List.of("entry3.bin"));
+        final MappedZipFile selected = zip.select(List.of("entry4.bin"));
+        zip.close();
+        assertThrows(ZipException.class, () -> zip.readBytes(0));
+        assertThrows(ZipException.class, () -> selected.readBytes(0));
+        assertThrows(ZipException.class, () -> zip.select(List.of("entry5.bin")));
+        // closing again is a no-op
+        zip.close();
+    }
+
+    @Test
+    void notAnArchive() throws IOException {
+        final File file = new File(tempDir, "garbage.jar");
+        final byte[] garbage = new byte[300 * 1024];
+        new Random(1).nextBytes(garbage);
+        Files.write(file.toPath(), garbage);
+        assertThrows(ZipException.class, () -> MappedZipFile.open(file));
+        assertThrows(ZipException.class, () -> MappedZipFile.open(file, List.of(JarFile.MANIFEST_NAME)));
+    }
+
+    private void assertMatchesZipFile(File jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar); MappedZipFile zip = MappedZipFile.open(jar)) {
+            assertTrue(zip.isComplete());
+            assertSameEntries(zipFile, zip);
+        }
+    }
+
+    private static void assertSameEntries(ZipFile zipFile, MappedZipFile zip) throws IOException {
+        final List<String> expected = new ArrayList<>();
+        for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+            expected.add(entries.nextElement().getName());
+        }
+        final List<String> actual = new ArrayList<>();
+        for (int i = 0; i < zip.size(); i++) {
+            actual.add(zip.getName(i));
+        }
+        assertEquals(expected, actual);
+
+        for (int i = 0; i < zip.size(); i++) {
+            final ZipEntry entry = zipFile.getEntry(zip.getName(i));
+            final byte[] content = read(zipFile, entry.getName());
+            assertEquals(entry.getSize(), zip.getSize(i), entry.getName());
+            assertEquals(entry.getMethod() == ZipEntry.STORED, zip.isStored(i), entry.getName());
+            assertArrayEquals(content, zip.readBytes(i), entry.getName());
+
+            final byte[] reused = new byte[content.length + 16];
+            assertEquals(content.length, zip.readBytes(i, reused), entry.getName());
+            assertArrayEquals(content, Arrays.copyOf(reused, content.length), entry.getName());
+
+            try (InputStream in = zip.getInputStream(i)) {
+                assertArrayEquals(content, in.readAllBytes(), entry.getName());
+            }
+            if (zip.isStored(i)) {
+                final ByteBuffer stored = zip.getStoredContent(i);
+                final byte[] storedBytes = new byte[stored.remaining()];
+                stored.get(storedBytes);
+                assertArrayEquals(content, storedBytes, entry.getName());
+            }
+        }
+        assertNull(zip.getInputStream("missing.bin"));
+        assertEquals(-1, zip.find("missing.bin"));
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        try (InputStream in = zipFile.getInputStream(zipFile.getEntry(name))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Writes a manifest, a directory, an empty entry and count entries of up to maxSize bytes, alternating between deflated compressible data,
+     * deflated random data and stored random data.
+     */
+    private File writeArchive(String name, int count, int maxSize, byte[] prefix) throws IOException {
+        final File file = new File(tempDir, name);
+        final Random random = new Random(name.hashCode());
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry(JarFile.MANIFEST_NAME));
+            zip.write("Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            zip.putNextEntry(new ZipEntry("dir/"));
+            zip.putNextEntry(new ZipEntry("dir/empty.txt"));
+            zip.putNextEntry(new ZipEntry("dir/n\u00e4me.txt"));
+            zip.write("non-ASCII entry name".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < count; i++) {
+                final byte[] content = new byte[random.nextInt(maxSize + 1)];
+                final ZipEntry entry = new ZipEntry("entry" + i + ".bin");
+                if (i % 3 == 0) {
+                    Arrays.fill(content, (byte) ('a' + i % 26));
+                } else {
+                    random.nextBytes(content);
+                }
+                if (i % 3 == 2) {
+                    final CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCompressedSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(entry);
+                zip.write(content);
+            }
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(prefix);
+            bytes.writeTo(out);
+        }
+        return file;
+    }
+}